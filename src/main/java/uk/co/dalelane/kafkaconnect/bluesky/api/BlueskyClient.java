@@ -15,41 +15,54 @@ package uk.co.dalelane.kafkaconnect.bluesky.api;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.co.dalelane.kafkaconnect.bluesky.jfr.PageParseEvent;
+import uk.co.dalelane.kafkaconnect.bluesky.jfr.SearchRequestEvent;
+import uk.co.dalelane.kafkaconnect.bluesky.jfr.SessionEvent;
+
 
 public class BlueskyClient implements Closeable {
 
     private final Logger log = LoggerFactory.getLogger(BlueskyClient.class);
 
-    private final HttpClient httpClient = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_2)
-            .build();
+    private final HttpClient httpClient;
+
+    // the HTTP client doesn't decompress responses, so this is used
+    //  for API calls with potentially large responses
+    private final CompressedBodyHandler compressedBodyHandler = new CompressedBodyHandler();
 
     // cf. https://docs.bsky.app/docs/category/http-reference
     private static final String BLUESKY_API_BASE_URL = "https://bsky.social/xrpc/";
     private static final URI LOGIN_URI = URI.create(BLUESKY_API_BASE_URL + "com.atproto.server.createSession");
     private static final URI REFRESH_URI = URI.create(BLUESKY_API_BASE_URL + "com.atproto.server.refreshSession");
 
+    // position for a search that no posts have been fetched for
+    public static final long NO_POSITION = Long.MIN_VALUE;
+
     // --------------------------------------------------------------
     //  CREDENTIALS
     // --------------------------------------------------------------
@@ -59,10 +72,16 @@ public class BlueskyClient implements Closeable {
     private final String password;
 
     // bearer token to use for search calls
-    private String accessJwt = null;
+    private volatile String accessJwt = null;
     // bearer token to use for refresh session calls
     private String refreshJwt = null;
 
+    // the session can be replaced by the background refresh, or by an
+    //  API call that finds that the access jwt has been rejected
+    //  (a lock rather than synchronized, as the session is replaced using
+    //  blocking API calls, which would pin a virtual thread's carrier)
+    private final ReentrantLock sessionLock = new ReentrantLock();
+
 
     // --------------------------------------------------------------
     //  SESSION REFRESHING
@@ -76,100 +95,190 @@ public class BlueskyClient implements Closeable {
     //  to store it to be able to throw it on the next poll
     private BlueskyException refreshException = null;
 
-    private Timer sessionRefreshTimer = null;
-    private TimerTask sessionRefreshTask = new TimerTask() {
-        @Override
-        public void run() {
-            refreshLogin();
-        }
-    };
+    // how soon to try again after a session refresh fails with a
+    //  temporary problem, instead of waiting for the next refresh
+    private static final int SESSION_REFRESH_RETRY_MS = 1000 * 15;
+
+    // runs the session refresh in the background
+    private final SharedScheduler scheduler;
+    private SharedScheduler.ScheduledWork sessionRefresh = null;
 
 
     // --------------------------------------------------------------
-    //  PAGINATION
+    //  FAILURE HANDLING
     // --------------------------------------------------------------
 
-    // timestamp (from the createdAt value) of the most recent post fetched
-    //  should be a string containing a time stamp such as
-    //   2024-09-30T19:40:02.943Z
-    //  or null if no posts have ever been fetched
-    private String lastPostTimestamp;
-
+    // timeouts and retries for API calls
+    private final RequestPolicy requestPolicy;
+    // stops API calls from being made while Bluesky is failing
+    private final CircuitBreaker circuitBreaker;
 
 
     /**
      *
-     * @param lastPostTimestamp - can be null if this is the first time the client has run
+     * @param scheduler - used to refresh the session in the background
      */
-    public BlueskyClient(String username, String password, String lastPostTimestamp) {
+    public BlueskyClient(String username, String password, SharedScheduler scheduler,
+                         RequestPolicy requestPolicy, CircuitBreaker circuitBreaker)
+    {
         this.username = username;
         this.password = password;
-        this.lastPostTimestamp = lastPostTimestamp;
+        this.scheduler = scheduler;
+        this.requestPolicy = requestPolicy;
+        this.circuitBreaker = circuitBreaker;
+
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(requestPolicy.getRequestTimeoutMs()))
+            .build();
     }
 
 
     public void login() throws BlueskyException {
+        sessionLock.lock();
+        try {
+            createSession();
+        }
+        finally {
+            sessionLock.unlock();
+        }
+
+        log.debug("Scheduling background refresh of session jwt");
+        if (sessionRefresh != null) {
+            sessionRefresh.cancel();
+        }
+        sessionRefresh = scheduler.schedule("bluesky-session-refresher",
+                                            this::refreshLogin,
+                                            SESSION_REFRESH_INTERVAL_MS, SESSION_REFRESH_INTERVAL_MS, 0);
+    }
+
+
+    private void createSession() throws BlueskyException {
         log.info("Logging into Bluesky as {}", username);
+        SessionEvent sessionEvent = new SessionEvent();
+        sessionEvent.operation = SessionEvent.LOGIN;
+        sessionEvent.begin();
         try {
             JSONObject authData = new JSONObject()
                 .put("identifier", username)
                 .put("password", password);
 
-            HttpRequest request = HttpRequest.newBuilder()
+            HttpRequest.Builder request = HttpRequest.newBuilder()
                 .uri(LOGIN_URI)
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(authData.toString()))
-                .build();
-
-            HttpResponse<String> response = httpClient.send(request,
-                HttpResponse.BodyHandlers.ofString());
+                .POST(HttpRequest.BodyPublishers.ofString(authData.toString()));
 
-            if (response.statusCode() != 200) {
-                log.error("Failed to log in - http {}", response.statusCode());
-                throw new BlueskyException("Failed to log in to Bluesky - response code " + response.statusCode());
-            }
+            HttpResponse<CompressedBodyHandler.Body> response = send("log in to Bluesky", request, false, getDeadline());
+            sessionEvent.statusCode = response.statusCode();
 
-            JSONObject jsonResponse = new JSONObject(response.body());
+            JSONObject jsonResponse = parseJson(response.body());
             accessJwt = jsonResponse.getString("accessJwt");
             refreshJwt = jsonResponse.getString("refreshJwt");
-
-            log.debug("Starting background timer to refresh session jwt");
-            sessionRefreshTimer = new Timer("bluesky-session-refresher");
-            sessionRefreshTimer.schedule(sessionRefreshTask, SESSION_REFRESH_INTERVAL_MS, SESSION_REFRESH_INTERVAL_MS);
+            sessionEvent.success = true;
+        }
+        catch (BlueskyException exc) {
+            log.error("Failure during login", exc);
+            sessionEvent.statusCode = exc.getStatusCode();
+            throw exc;
         }
-        catch (IOException | InterruptedException exc) {
+        catch (IOException | JSONException exc) {
             log.error("Failure during login", exc);
-            throw new BlueskyException("Failed to log in to Bluesky", exc);
+            throw new BlueskyException("Failed to log in to Bluesky", exc, true);
+        }
+        finally {
+            sessionEvent.commit();
         }
     }
 
 
-    private void refreshLogin() {
+    private void refreshSession() throws BlueskyException {
         log.debug("Refreshing Bluesky login session");
+        SessionEvent sessionEvent = new SessionEvent();
+        sessionEvent.operation = SessionEvent.REFRESH;
+        sessionEvent.begin();
         try {
-            HttpRequest request = HttpRequest.newBuilder()
+            HttpRequest.Builder request = HttpRequest.newBuilder()
                 .uri(REFRESH_URI)
                 .header("Content-Type", "application/json")
                 .header("Accept", "application/json")
                 .header("Authorization", "Bearer " + refreshJwt)
-                .POST(HttpRequest.BodyPublishers.noBody())
-                .build();
-
-            HttpResponse<String> response = httpClient.send(request,
-                HttpResponse.BodyHandlers.ofString());
+                .POST(HttpRequest.BodyPublishers.noBody());
 
-            if (response.statusCode() != 200) {
-                log.error("Failed to refresh session - http {}", response.statusCode());
-                refreshException = new BlueskyException("Failed to refresh Bluesky session - response code " + response.statusCode());
-            }
+            HttpResponse<CompressedBodyHandler.Body> response = send("refresh Bluesky session", request, false, getDeadline());
+            sessionEvent.statusCode = response.statusCode();
 
             log.debug("Storing new Bluesky access jwt");
-            JSONObject jsonResponse = new JSONObject(response.body());
+            JSONObject jsonResponse = parseJson(response.body());
             accessJwt = jsonResponse.getString("accessJwt");
+            refreshJwt = jsonResponse.optString("refreshJwt", refreshJwt);
+            sessionEvent.success = true;
+        }
+        catch (BlueskyException exc) {
+            sessionEvent.statusCode = exc.getStatusCode();
+            throw exc;
         }
-        catch (IOException | InterruptedException exc) {
+        catch (IOException | JSONException exc) {
             log.error("Failure during session refresh", exc);
-            refreshException = new BlueskyException("Failed to refresh Bluesky session", exc);
+            throw new BlueskyException("Failed to refresh Bluesky session", exc, true);
+        }
+        finally {
+            sessionEvent.commit();
+        }
+    }
+
+
+    /**
+     * Refreshes the session, or logs in again if it can't be refreshed.
+     *
+     * @param rejectedAccessJwt - access jwt that Bluesky rejected, or
+     *  null for a scheduled refresh - if the session has already been
+     *  replaced since the jwt was used, nothing needs to be done
+     */
+    private void reauthenticate(String rejectedAccessJwt) throws BlueskyException {
+        sessionLock.lock();
+        try {
+            if (rejectedAccessJwt != null && !rejectedAccessJwt.equals(accessJwt)) {
+                return;
+            }
+            try {
+                refreshSession();
+            }
+            catch (BlueskyException exc) {
+                if (!exc.isAuthenticationFailure()) {
+                    throw exc;
+                }
+                log.warn("Bluesky session could not be refreshed - logging in again", exc);
+                createSession();
+            }
+        }
+        finally {
+            sessionLock.unlock();
+        }
+    }
+
+
+    /** @return the state of the circuit breaker for Bluesky API calls */
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+
+    private void refreshLogin() {
+        try {
+            reauthenticate(null);
+        }
+        catch (BlueskyException exc) {
+            if (exc.isRetryable() && sessionRefresh != null) {
+                // the current access jwt should still be valid for
+                //  a while, so there is time to try again
+                log.warn("Failed to refresh session - retrying in {} ms", SESSION_REFRESH_RETRY_MS, exc);
+                sessionRefresh.runAfter(SESSION_REFRESH_RETRY_MS);
+            }
+            else {
+                // the credentials are no longer accepted
+                log.error("Failure during session refresh", exc);
+                refreshException = exc;
+            }
         }
     }
 
@@ -189,23 +298,59 @@ public class BlueskyClient implements Closeable {
     }
 
 
-    public List<Post> search(String searchterm, int limit) throws BlueskyException {
+    private URI createMultiValueUrl(String method, String key, Collection<String> values) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(BLUESKY_API_BASE_URL);
+        sb.append(method);
+        sb.append("?");
+        for (String value : values) {
+            sb.append(key);
+            sb.append("=");
+            sb.append(URLEncoder.encode(value, Charset.forName("UTF-8")));
+            sb.append("&");
+        }
+        return URI.create(sb.toString());
+    }
+
+
+    /**
+     * @return time by which an API call that starts now must be complete
+     */
+    public long getDeadline() {
+        return System.currentTimeMillis() + requestPolicy.getOperationTimeoutMs();
+    }
+
+
+    /**
+     * @param lastPostMillis - createdAt timestamp (in epoch millis) of the
+     *  most recent post previously fetched for this search, or NO_POSITION
+     *  if no posts have ever been fetched
+     * @param deadline - time (in epoch millis) by which the search must be complete
+     * @param posts - posts created after lastPostMillis are added to this,
+     *  in chronological order - if the search fails, posts fetched before
+     *  the failure are still added
+     */
+    public void search(String searchterm, long lastPostMillis, int limit, long deadline, List<Post> posts) throws BlueskyException {
         if (refreshException != null) {
             throw refreshException;
         }
 
-        List<Post> posts = new ArrayList<>();
+        int numStart = posts.size();
         int numBefore = -1;
+        int page = 0;
         while (posts.size() > numBefore) {
             numBefore = posts.size();
-            searchPage(posts, searchterm, limit);
+            page += 1;
+            if (posts.size() > numStart) {
+                lastPostMillis = posts.get(posts.size() - 1).getCreatedAtMillis();
+            }
+            searchPage(posts, searchterm, lastPostMillis, limit, page, deadline);
         }
-
-        return posts;
     }
 
-    private void searchPage(List<Post> searchResults, String searchterm, int limit) throws BlueskyException {
-        log.info("Polling Bluesky for {} for posts using offset {}", searchterm, this.lastPostTimestamp);
+    private void searchPage(List<Post> searchResults, String searchterm, long lastPostMillis, int limit, int page, long deadline) throws BlueskyException {
+        log.info("Polling Bluesky for {} for posts using offset {}", searchterm,
+                 lastPostMillis == NO_POSITION ? null : Instant.ofEpochMilli(lastPostMillis));
 
         Map<String, String> queryParameters = new HashMap<>();
         // Search query string; syntax, phrase, boolean, and faceting is unspecified, but Lucene query syntax is recommended.
@@ -213,47 +358,231 @@ public class BlueskyClient implements Closeable {
         // maximum number of posts to fetch
         queryParameters.put("limit", Integer.toString(limit));
         // pagination
-        if (lastPostTimestamp != null) {
+        if (lastPostMillis != NO_POSITION) {
             // search API is inclusive, so to avoid again fetching the last
             //  post again, we need to increment the last post timestamp
             //  by at least one millisecond
-            String since = incrementTimestamp(lastPostTimestamp);
-            if (since != null) {
-                queryParameters.put("since", URLEncoder.encode(since, Charset.forName("UTF-8")));
-            }
+            String since = Instant.ofEpochMilli(lastPostMillis + 1).toString();
+            queryParameters.put("since", URLEncoder.encode(since, Charset.forName("UTF-8")));
         }
 
+        SearchRequestEvent requestEvent = new SearchRequestEvent();
+        requestEvent.term = searchterm;
+        requestEvent.page = page;
+
         try {
             URI uri = createSearchUrl(queryParameters);
             log.debug("Submitting search {}", uri);
 
-            HttpRequest request = HttpRequest.newBuilder()
+            HttpRequest.Builder request = HttpRequest.newBuilder()
                 .uri(uri)
                 .header("Accept", "application/json")
-                .header("Authorization", "Bearer " + accessJwt)
-                .GET()
-                .build();
+                .GET();
 
-            HttpResponse<String> response = httpClient.send(request,
-                HttpResponse.BodyHandlers.ofString());
+            requestEvent.begin();
+            HttpResponse<CompressedBodyHandler.Body> response = send("search Bluesky", request, true, deadline);
+            requestEvent.end();
+            requestEvent.statusCode = response.statusCode();
 
             // parse the response
             //  the posts are returned in reverse order, so we
             //  iterate through the list in reverse to keep them
             //  in a chronological order
-            JSONObject jsonResponse = new JSONObject(response.body());
+            PageParseEvent parseEvent = new PageParseEvent();
+            parseEvent.term = searchterm;
+            parseEvent.begin();
+            JSONObject jsonResponse = parseJson(response.body());
+            requestEvent.wireBytes = response.body().getWireBytes();
+            requestEvent.bytes = response.body().getDecodedBytes();
             JSONArray posts = jsonResponse.getJSONArray("posts");
             for (int i = posts.length() - 1; i >= 0; i--) {
                 JSONObject postData = posts.getJSONObject(i);
                 Post post = parse(postData);
                 if (post != null) {
                     searchResults.add(post);
-                    lastPostTimestamp = post.createdAt;
+                    parseEvent.postCount += 1;
                 }
             }
+            parseEvent.commit();
         }
-        catch (IOException | InterruptedException | JSONException exc) {
-            log.error("Error while submitting search to Bluesky", exc);
+        catch (BlueskyException exc) {
+            requestEvent.statusCode = exc.getStatusCode();
+            throw exc;
+        }
+        catch (IOException | JSONException exc) {
+            // the connection failed or the response was truncated while
+            //  it was being read, so the search could succeed if retried
+            log.error("Error while reading search results from Bluesky", exc);
+            throw new BlueskyException("Failed to read Bluesky search results", exc, true);
+        }
+        finally {
+            requestEvent.commit();
+        }
+    }
+
+
+    /**
+     * Sends an API request, retrying it if it fails because of a temporary
+     *  problem, such as a timeout or a 503 response.
+     *
+     * Requests are not sent while the circuit breaker is open, and retries
+     *  are not attempted if they couldn't be completed by the deadline.
+     *  The deadline also applies to reading the response body.
+     *
+     * @param description - what the request is for, used in errors
+     * @param authenticated - true if the request should use the access
+     *  jwt - if it is rejected, the session is refreshed (or the client
+     *  logs in again) and the request is sent again
+     * @param deadline - time (in epoch millis) by which the request must be complete
+     * @return the response - only returned if the request was successful
+     */
+    private HttpResponse<CompressedBodyHandler.Body> send(String description, HttpRequest.Builder requestBuilder,
+                                                          boolean authenticated, long deadline)
+        throws BlueskyException
+    {
+        HttpResponse.BodyHandler<CompressedBodyHandler.Body> bodyHandler = compressedBodyHandler.withDeadline(deadline);
+        requestBuilder.setHeader("Accept-Encoding", CompressedBodyHandler.ACCEPT_ENCODING);
+
+        int retries = 0;
+        boolean reauthenticated = false;
+        while (true) {
+            long remainingMs = deadline - System.currentTimeMillis();
+            if (remainingMs <= 0) {
+                throw new BlueskyException("Timed out trying to " + description, true, 0);
+            }
+            if (!circuitBreaker.allowRequest()) {
+                throw new BlueskyException("Unable to " + description + " - circuit breaker is open after repeated failures", true, 0);
+            }
+
+            String jwt = accessJwt;
+            if (authenticated) {
+                requestBuilder.setHeader("Authorization", "Bearer " + jwt);
+            }
+
+            BlueskyException failure;
+            long retryAfterMs = 0;
+            try {
+                HttpRequest request = requestBuilder
+                    .timeout(Duration.ofMillis(Math.min(requestPolicy.getRequestTimeoutMs(), remainingMs)))
+                    .build();
+                HttpResponse<CompressedBodyHandler.Body> response = httpClient.send(request, bodyHandler);
+
+                int statusCode = response.statusCode();
+                if (statusCode == 200) {
+                    circuitBreaker.recordSuccess();
+                    return response;
+                }
+
+                if (!requestPolicy.isRetryable(statusCode)) {
+                    // Bluesky is working, but rejected the request, so
+                    //  this shouldn't count towards opening the circuit
+                    circuitBreaker.recordSuccess();
+                    String error = getErrorName(response);
+                    BlueskyException rejected = new BlueskyException(
+                        "Failed to " + description + " - response code " + statusCode + (error == null ? "" : " " + error),
+                        false, statusCode, error);
+
+                    if (authenticated && !reauthenticated && rejected.isAuthenticationFailure()) {
+                        log.warn("Bluesky session was rejected ({}) - refreshing it before trying to {} again", error, description);
+                        reauthenticated = true;
+                        reauthenticate(jwt);
+                        continue;
+                    }
+
+                    log.error("Failed to {} - http {} {}", description, statusCode, error);
+                    throw rejected;
+                }
+
+                discard(response);
+                log.error("Failed to {} - http {}", description, statusCode);
+                circuitBreaker.recordFailure();
+                failure = new BlueskyException("Failed to " + description + " - response code " + statusCode, true, statusCode);
+                retryAfterMs = getRetryAfterMs(response);
+            }
+            catch (IOException exc) {
+                // includes timeouts
+                log.error("Failure trying to {}", description, exc);
+                circuitBreaker.recordFailure();
+                failure = new BlueskyException("Failed to " + description, exc, true);
+            }
+            catch (InterruptedException exc) {
+                circuitBreaker.recordAbandoned();
+                Thread.currentThread().interrupt();
+                throw new BlueskyException("Interrupted while trying to " + description, exc);
+            }
+
+            retries += 1;
+            if (retries > requestPolicy.getMaxRetries()) {
+                throw failure;
+            }
+            long delayMs = Math.max(requestPolicy.getBackoffMs(retries), retryAfterMs);
+            if (System.currentTimeMillis() + delayMs >= deadline) {
+                throw failure;
+            }
+
+            log.info("Retrying attempt to {} in {} ms (retry {} of {})", description, delayMs, retries, requestPolicy.getMaxRetries());
+            try {
+                Thread.sleep(delayMs);
+            }
+            catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new BlueskyException("Interrupted while trying to " + description, exc);
+            }
+        }
+    }
+
+
+    private void discard(HttpResponse<CompressedBodyHandler.Body> response) {
+        try {
+            response.body().close();
+        }
+        catch (IOException exc) {
+            log.debug("Failed to close response body", exc);
+        }
+    }
+
+
+    /**
+     * @return the name of the error from an error response body, such
+     *  as InvalidRequest or ExpiredToken, or null if there isn't one
+     */
+    private String getErrorName(HttpResponse<CompressedBodyHandler.Body> response) {
+        try {
+            return parseJson(response.body()).optString("error", null);
+        }
+        catch (IOException | JSONException exc) {
+            log.debug("Failed to read error response body", exc);
+            return null;
+        }
+    }
+
+
+    /**
+     * @return delay requested by Bluesky with a Retry-After header
+     *  (e.g. when rate limiting requests), or 0 if there isn't one
+     */
+    private long getRetryAfterMs(HttpResponse<?> response) {
+        String retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+        if (retryAfter != null) {
+            try {
+                return Long.parseLong(retryAfter.trim()) * 1000;
+            }
+            catch (NumberFormatException exc) {
+                // HTTP dates are also allowed, but aren't used by Bluesky
+                log.debug("Ignoring Retry-After header {}", retryAfter);
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * Parses a JSON response body as it is streamed and decompressed,
+     *  without needing to store the whole response in memory first.
+     */
+    private JSONObject parseJson(CompressedBodyHandler.Body body) throws IOException {
+        try (InputStreamReader reader = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+            return new JSONObject(new JSONTokener(reader));
         }
     }
 
@@ -264,30 +593,51 @@ public class BlueskyClient implements Closeable {
             JSONObject recordData = postData.getJSONObject("record");
 
             User author = new User();
-            author.handle = authorData.getString("handle");
-            author.displayName = authorData.optString("displayName");
-            author.avatar = authorData.optString("avatar");
+            author.setDid(authorData.getString("did"));
+            author.setHandle(authorData.getString("handle"));
+            author.setDisplayName(authorData.optString("displayName"));
+            author.setAvatar(authorData.optString("avatar"));
 
             Post post = new Post();
-            post.author = author;
-            post.uri = postData.getString("uri");
-            post.cid = postData.getString("cid");
-            post.createdAt = recordData.getString("createdAt");
+            post.setAuthor(author);
+            post.setUri(postData.getString("uri"));
+            post.setCid(postData.getString("cid"));
+            post.setCreatedAt(recordData.getString("createdAt"));
             if (recordData.has("langs")) {
                 JSONArray langsJson = recordData.getJSONArray("langs");
-                post.langs = new String[langsJson.length()];
+                String[] langs = new String[langsJson.length()];
                 for (int i=0; i < langsJson.length(); i++) {
-                    post.langs[i] = langsJson.getString(i);
+                    langs[i] = langsJson.getString(i);
                 }
+                post.setLangs(langs);
             }
             else {
-                post.langs = new String[0];
+                post.setLangs(new String[0]);
+            }
+            post.setText(recordData.getString("text"));
+
+            // cf. https://docs.bsky.app/docs/advanced-guides/posts#replies
+            JSONObject replyData = recordData.optJSONObject("reply");
+            if (replyData != null) {
+                post.setReplyParentUri(replyData.getJSONObject("parent").getString("uri"));
+                post.setReplyRootUri(replyData.getJSONObject("root").getString("uri"));
+            }
+
+            // cf. https://docs.bsky.app/docs/advanced-guides/posts#quote-posts
+            JSONObject embedData = recordData.optJSONObject("embed");
+            if (embedData != null) {
+                String embedType = embedData.optString("$type");
+                if ("app.bsky.embed.record".equals(embedType)) {
+                    post.setQuotedUri(embedData.getJSONObject("record").getString("uri"));
+                }
+                else if ("app.bsky.embed.recordWithMedia".equals(embedType)) {
+                    post.setQuotedUri(embedData.getJSONObject("record").getJSONObject("record").getString("uri"));
+                }
             }
-            post.text = recordData.getString("text");
 
             return post;
         }
-        catch (JSONException exc) {
+        catch (JSONException | DateTimeParseException exc) {
             log.error("Failed to parse Bluesky post - skipping post : {}", postData.toString());
             log.error("json parse exception", exc);
             return null;
@@ -295,25 +645,123 @@ public class BlueskyClient implements Closeable {
     }
 
 
-    private String incrementTimestamp(String input) {
-        if (input != null) {
-            try {
-                Instant timestampInstant = Instant.parse(input);
-                long incrementedVal = timestampInstant.toEpochMilli() + 1;
-                return Instant.ofEpochMilli(incrementedVal).toString();
+    /**
+     * Fetches detailed profiles for the provided accounts.
+     *
+     * @param actors - DIDs or handles, at most 25 per call
+     * @param deadline - time (in epoch millis) by which the call must be complete
+     * @return profiles that were found - accounts that could
+     *  not be found are silently omitted by the Bluesky API
+     */
+    public List<User> getProfiles(Collection<String> actors, long deadline) throws BlueskyException {
+        if (refreshException != null) {
+            throw refreshException;
+        }
+
+        try {
+            URI uri = createMultiValueUrl("app.bsky.actor.getProfiles", "actors", actors);
+            log.debug("Fetching {} profiles", actors.size());
+
+            HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(uri)
+                .header("Accept", "application/json")
+                .GET();
+
+            HttpResponse<CompressedBodyHandler.Body> response = send("fetch Bluesky profiles", request, true, deadline);
+
+            List<User> profiles = new ArrayList<>();
+            JSONArray profilesData = parseJson(response.body()).getJSONArray("profiles");
+            for (int i = 0; i < profilesData.length(); i++) {
+                User profile = parseProfile(profilesData.getJSONObject(i));
+                if (profile != null) {
+                    profiles.add(profile);
+                }
+            }
+            return profiles;
+        }
+        catch (IOException | JSONException exc) {
+            log.error("Error while fetching profiles from Bluesky", exc);
+            throw new BlueskyException("Failed to fetch Bluesky profiles", exc, true);
+        }
+    }
+
+
+    /**
+     * Fetches the posts with the provided URIs.
+     *
+     * @param uris - AT-URIs of posts, at most 25 per call
+     * @param deadline - time (in epoch millis) by which the call must be complete
+     * @return posts that were found - posts that have been
+     *  deleted are silently omitted by the Bluesky API
+     */
+    public List<Post> getPosts(Collection<String> uris, long deadline) throws BlueskyException {
+        if (refreshException != null) {
+            throw refreshException;
+        }
+
+        try {
+            URI uri = createMultiValueUrl("app.bsky.feed.getPosts", "uris", uris);
+            log.debug("Fetching {} posts", uris.size());
+
+            HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(uri)
+                .header("Accept", "application/json")
+                .GET();
+
+            HttpResponse<CompressedBodyHandler.Body> response = send("fetch Bluesky posts", request, true, deadline);
+
+            List<Post> posts = new ArrayList<>();
+            JSONArray postsData = parseJson(response.body()).getJSONArray("posts");
+            for (int i = 0; i < postsData.length(); i++) {
+                Post post = parse(postsData.getJSONObject(i));
+                if (post != null) {
+                    posts.add(post);
+                }
             }
-            catch (DateTimeParseException exc) {
-                log.error("Failed to parse createdAt timestamp {} from Bluesky post", input);
+            return posts;
+        }
+        catch (IOException | JSONException exc) {
+            log.error("Error while fetching posts from Bluesky", exc);
+            throw new BlueskyException("Failed to fetch Bluesky posts", exc, true);
+        }
+    }
+
+
+    private User parseProfile(JSONObject profileData) {
+        try {
+            User profile = new User();
+            profile.setDid(profileData.getString("did"));
+            profile.setHandle(profileData.getString("handle"));
+            profile.setDisplayName(profileData.optString("displayName"));
+            profile.setAvatar(profileData.optString("avatar"));
+            profile.setDescription(profileData.optString("description"));
+            if (profileData.has("followersCount")) {
+                profile.setFollowersCount(profileData.getLong("followersCount"));
             }
+            if (profileData.has("followsCount")) {
+                profile.setFollowsCount(profileData.getLong("followsCount"));
+            }
+            if (profileData.has("postsCount")) {
+                profile.setPostsCount(profileData.getLong("postsCount"));
+            }
+            return profile;
+        }
+        catch (JSONException exc) {
+            log.error("Failed to parse Bluesky profile - skipping profile : {}", profileData.toString());
+            log.error("json parse exception", exc);
+            return null;
         }
-        return null;
     }
 
 
 
     public void logout() {
-        if (sessionRefreshTimer != null) {
-            sessionRefreshTimer.cancel();
+        log.info("Received {} bytes from Bluesky API calls ({} bytes after decompression)",
+                 compressedBodyHandler.getTotalWireBytes(),
+                 compressedBodyHandler.getTotalDecodedBytes());
+        if (sessionRefresh != null) {
+            sessionRefresh.cancel();
+            sessionRefresh = null;
         }
         accessJwt = null;
         refreshJwt = null;
@@ -15,11 +15,73 @@ package uk.co.dalelane.kafkaconnect.bluesky.api;
 
 public class BlueskyException extends Exception {
 
+    private static final long serialVersionUID = 1L;
+
+    // true if the failure was caused by a temporary problem, so
+    //  the same request could succeed if it is tried again later
+    private final boolean retryable;
+
+    // HTTP response code, or 0 if no response was received
+    private final int statusCode;
+
+    // error name from the response (e.g. ExpiredToken), or null
+    // cf. https://docs.bsky.app/docs/advanced-guides/api-directory#errors
+    private final String error;
+
     public BlueskyException(String reason) {
-        super(reason);
+        this(reason, false, 0);
     }
 
     public BlueskyException(String reason, Throwable thr) {
+        this(reason, thr, false);
+    }
+
+    public BlueskyException(String reason, boolean retryable, int statusCode) {
+        this(reason, retryable, statusCode, null);
+    }
+
+    public BlueskyException(String reason, boolean retryable, int statusCode, String error) {
+        super(reason);
+        this.retryable = retryable;
+        this.statusCode = statusCode;
+        this.error = error;
+    }
+
+    public BlueskyException(String reason, Throwable thr, boolean retryable) {
         super(reason, thr);
+        this.retryable = retryable;
+        this.statusCode = 0;
+        this.error = null;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return true if Bluesky rejected the credentials or session
+     */
+    public boolean isAuthenticationFailure() {
+        return statusCode == 401 ||
+               "ExpiredToken".equals(error) ||
+               "InvalidToken".equals(error) ||
+               "AuthenticationRequired".equals(error) ||
+               "AccountTakedown".equals(error);
+    }
+
+    /**
+     * @return true if Bluesky rejected the request itself (e.g. an
+     *  invalid search query), so other requests could still succeed
+     */
+    public boolean isRequestRejected() {
+        return !retryable && statusCode >= 400 && statusCode < 500 && !isAuthenticationFailure();
     }
 }
@@ -0,0 +1,142 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.dalelane.kafkaconnect.bluesky.jfr.CircuitBreakerEvent;
+
+/**
+ * Stops requests from being sent to the Bluesky API after repeated
+ *  failures, to give it a chance to recover.
+ *
+ * After the configured number of consecutive failures, the circuit
+ *  is opened and requests are rejected without being sent. Once it
+ *  has been open for the configured time, a single trial request is
+ *  allowed - if it succeeds, the circuit is closed again.
+ */
+public class CircuitBreaker {
+
+    private final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        // requests are allowed
+        CLOSED,
+        // requests are rejected
+        OPEN,
+        // a trial request is allowed
+        HALF_OPEN
+    }
+
+    // number of consecutive failures that opens the circuit
+    private final int failureThreshold;
+    // how long the circuit stays open before a trial request is allowed
+    private final long openMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean trialInProgress = false;
+
+
+    public CircuitBreaker(int failureThreshold, long openMs) {
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+    }
+
+
+    /**
+     * @return true if a request can be sent - callers must then call
+     *  either recordSuccess() or recordFailure() with the outcome
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs) {
+            transition(State.HALF_OPEN);
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialInProgress) {
+                    return false;
+                }
+                trialInProgress = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * Records a request that got a response from Bluesky, including
+     *  errors that were caused by the request rather than by Bluesky.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInProgress = false;
+        if (state != State.CLOSED) {
+            transition(State.CLOSED);
+        }
+    }
+
+
+    /**
+     * Records a request that failed because of a problem with Bluesky.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures += 1;
+        trialInProgress = false;
+        if (state == State.HALF_OPEN ||
+            (state == State.CLOSED && consecutiveFailures >= failureThreshold))
+        {
+            openedAt = System.currentTimeMillis();
+            transition(State.OPEN);
+        }
+    }
+
+
+    /**
+     * Records a request that was abandoned without an outcome, such as
+     *  when the task is stopped while waiting for a response.
+     */
+    public synchronized void recordAbandoned() {
+        trialInProgress = false;
+    }
+
+
+    public synchronized State getState() {
+        return state;
+    }
+
+
+    private void transition(State newState) {
+        if (newState == State.OPEN) {
+            log.warn("Bluesky API circuit breaker opened after {} consecutive failures - requests will not be sent for {} ms",
+                     consecutiveFailures, openMs);
+        }
+        else {
+            log.info("Bluesky API circuit breaker state changed from {} to {}", state, newState);
+        }
+
+        CircuitBreakerEvent event = new CircuitBreakerEvent();
+        event.previousState = state.name();
+        event.state = newState.name();
+        event.consecutiveFailures = consecutiveFailures;
+        event.commit();
+
+        state = newState;
+    }
+}
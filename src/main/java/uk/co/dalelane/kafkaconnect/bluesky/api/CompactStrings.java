@@ -0,0 +1,77 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Helpers for storing strings compactly in posts that are waiting
+ *  to be delivered.
+ *
+ * Strings already store Latin-1 text at one byte per character, so
+ *  a byte array only saves the String object itself. This is only
+ *  worth doing for ASCII identifiers (CIDs, AT-URIs, URLs) that are
+ *  rarely read, as each read decodes a new String. It isn't used for
+ *  free text, which for non-Latin scripts needs more memory as UTF-8
+ *  (e.g. three bytes per CJK character, compared with two in a String).
+ */
+class CompactStrings {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // language arrays shared by all posts, keyed by the languages
+    //  joined with commas - a small number of combinations (e.g. ["en"]
+    //  or []) are used by almost all posts
+    private static final Map<String, String[]> LANGUAGES = new ConcurrentHashMap<>();
+    // bounds the number of shared language arrays, in case of posts
+    //  with unusual language combinations
+    private static final int MAX_SHARED_LANGUAGES = 1_000;
+
+
+    static byte[] encode(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.isEmpty()) {
+            return EMPTY;
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String decode(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * @return an array with the same languages as the provided array,
+     *  which may be shared with other posts so must not be modified
+     */
+    static String[] shareLanguages(String[] langs) {
+        String key = String.join(",", langs);
+        String[] shared = LANGUAGES.get(key);
+        if (shared == null) {
+            if (LANGUAGES.size() >= MAX_SHARED_LANGUAGES) {
+                return langs;
+            }
+            shared = LANGUAGES.computeIfAbsent(key, k -> langs);
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,366 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Response body handler for API calls made with compression
+ *  requested (using ACCEPT_ENCODING), which returns the response
+ *  body as a stream that is decompressed as it is read.
+ *
+ * Keeps a count of the bytes received over the network, and the
+ *  number of bytes after decompression.
+ *
+ * The request timeout only covers waiting for the response headers,
+ *  so handlers created with withDeadline() also stop reading the body
+ *  (failing with an HttpTimeoutException) if the deadline passes.
+ */
+public class CompressedBodyHandler implements HttpResponse.BodyHandler<CompressedBodyHandler.Body> {
+
+    // value to use in Accept-Encoding request headers
+    //  (only encodings supported by the JDK are included)
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    // totals for all responses received
+    private final AtomicLong totalWireBytes = new AtomicLong();
+    private final AtomicLong totalDecodedBytes = new AtomicLong();
+
+
+    @Override
+    public HttpResponse.BodySubscriber<Body> apply(HttpResponse.ResponseInfo responseInfo) {
+        return apply(responseInfo, Long.MAX_VALUE);
+    }
+
+
+    /**
+     * @param deadline - time (in epoch millis) by which the response
+     *  body must have been read
+     * @return handler for a single request, which shares the totals
+     *  with this handler
+     */
+    public HttpResponse.BodyHandler<Body> withDeadline(long deadline) {
+        return responseInfo -> apply(responseInfo, deadline);
+    }
+
+
+    private HttpResponse.BodySubscriber<Body> apply(HttpResponse.ResponseInfo responseInfo, long deadline) {
+        String encoding = responseInfo.headers()
+            .firstValue("Content-Encoding")
+            .orElse("identity")
+            .trim()
+            .toLowerCase(Locale.ROOT);
+        return HttpResponse.BodySubscribers.mapping(
+            new StreamingSubscriber(deadline),
+            wire -> new Body(wire, encoding));
+    }
+
+
+    public long getTotalWireBytes() {
+        return totalWireBytes.get();
+    }
+
+    public long getTotalDecodedBytes() {
+        return totalDecodedBytes.get();
+    }
+
+
+
+    /**
+     * Decompressed response body.
+     *
+     * The body is streamed from the network as it is read, so
+     *  it should always be closed after use.
+     */
+    public class Body extends InputStream {
+
+        private final CountingInputStream wire;
+        private final String encoding;
+
+        // created on first read, as the gzip stream reads the header
+        //  on creation, which would block the HTTP client thread
+        private InputStream decoded = null;
+        private long decodedBytes = 0;
+
+        private boolean closed = false;
+
+
+        private Body(InputStream wire, String encoding) {
+            this.wire = new CountingInputStream(wire);
+            this.encoding = encoding;
+        }
+
+
+        private InputStream decoded() throws IOException {
+            if (decoded == null) {
+                switch (encoding) {
+                    case "gzip":
+                    case "x-gzip":
+                        decoded = new GZIPInputStream(wire);
+                        break;
+                    case "deflate":
+                        decoded = new InflaterInputStream(wire);
+                        break;
+                    case "identity":
+                        decoded = wire;
+                        break;
+                    default:
+                        throw new IOException("Unsupported Content-Encoding " + encoding);
+                }
+            }
+            return decoded;
+        }
+
+
+        @Override
+        public int read() throws IOException {
+            int b = decoded().read();
+            if (b != -1) {
+                decodedBytes += 1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int num = decoded().read(buffer, offset, length);
+            if (num > 0) {
+                decodedBytes += num;
+            }
+            return num;
+        }
+
+
+        /** @return number of bytes received over the network so far */
+        public long getWireBytes() {
+            return wire.count;
+        }
+
+        /** @return number of bytes read after decompression so far */
+        public long getDecodedBytes() {
+            return decodedBytes;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                totalWireBytes.addAndGet(wire.count);
+                totalDecodedBytes.addAndGet(decodedBytes);
+            }
+            if (decoded != null) {
+                decoded.close();
+            }
+            else {
+                wire.close();
+            }
+        }
+    }
+
+
+
+    /**
+     * Provides the response body as a stream as it is received, like
+     *  BodySubscribers.ofInputStream() but with reads that give up
+     *  when the deadline passes instead of blocking indefinitely.
+     */
+    private static class StreamingSubscriber extends InputStream implements HttpResponse.BodySubscriber<InputStream> {
+
+        // marks the end of the body (or a failure) in the queue
+        private static final List<ByteBuffer> END = Collections.unmodifiableList(new ArrayList<>());
+
+        private final long deadline;
+
+        private final CompletableFuture<InputStream> body = CompletableFuture.completedFuture(this);
+        private final BlockingQueue<List<ByteBuffer>> received = new LinkedBlockingQueue<>();
+
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable failure;
+
+        private Iterator<ByteBuffer> buffers = Collections.emptyIterator();
+        private ByteBuffer buffer = null;
+        private boolean finished = false;
+        private volatile boolean closed = false;
+
+
+        private StreamingSubscriber(long deadline) {
+            this.deadline = deadline;
+        }
+
+
+        @Override
+        public CompletionStage<InputStream> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (closed) {
+                subscription.cancel();
+            }
+            else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            received.offer(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failure = throwable;
+            received.offer(END);
+        }
+
+        @Override
+        public void onComplete() {
+            received.offer(END);
+        }
+
+
+        /**
+         * @return buffer with data remaining, or null at the end of the body
+         */
+        private ByteBuffer current() throws IOException {
+            while (buffer == null || !buffer.hasRemaining()) {
+                if (closed) {
+                    throw new IOException("Response body has been closed");
+                }
+                if (finished) {
+                    return null;
+                }
+                if (buffers.hasNext()) {
+                    buffer = buffers.next();
+                    continue;
+                }
+
+                List<ByteBuffer> next;
+                try {
+                    long remainingMs = deadline - System.currentTimeMillis();
+                    next = remainingMs > 0 ? received.poll(remainingMs, TimeUnit.MILLISECONDS) : null;
+                }
+                catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading response body");
+                }
+                if (next == null) {
+                    close();
+                    throw new HttpTimeoutException("Timed out reading response body");
+                }
+                if (next == END) {
+                    finished = true;
+                    if (failure != null) {
+                        throw new IOException("Failed to read response body", failure);
+                    }
+                    return null;
+                }
+                buffers = next.iterator();
+                subscription.request(1);
+            }
+            return buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ByteBuffer current = current();
+            return current == null ? -1 : current.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            ByteBuffer current = current();
+            if (current == null) {
+                return -1;
+            }
+            int num = Math.min(length, current.remaining());
+            current.get(bytes, offset, num);
+            return num;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                Flow.Subscription s = subscription;
+                if (s != null && !finished) {
+                    s.cancel();
+                }
+                received.clear();
+            }
+        }
+    }
+
+
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count += 1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int num = super.read(buffer, offset, length);
+            if (num > 0) {
+                count += num;
+            }
+            return num;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
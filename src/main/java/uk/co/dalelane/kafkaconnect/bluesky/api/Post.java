@@ -13,13 +13,164 @@
  */
 package uk.co.dalelane.kafkaconnect.bluesky.api;
 
+import java.time.Instant;
+
 // cf. https://docs.bsky.app/docs/advanced-guides/posts#post-record-structure
 
+/**
+ * A Bluesky post.
+ *
+ * Posts can wait in memory for some time before they are delivered,
+ *  so they are stored compactly (timestamps as epoch millis, shared
+ *  language arrays, and identifiers that are rarely read as bytes).
+ *  Text and the post URI are kept as strings, as they are read
+ *  repeatedly while posts are matched, sampled and ordered.
+ */
 public class Post {
-    public User author;
-    public String uri;
-    public String cid;
-    public String[] langs;
-    public String text;
-    public String createdAt;
+    private User author;
+    private String uri;
+    private byte[] cid;
+    private String[] langs;
+    private String text;
+    private long createdAt;
+
+    // posts that this post is replying to or quoting
+    //  (or null if this isn't a reply or quote post)
+    private byte[] replyParentUri;
+    private byte[] replyRootUri;
+    private byte[] quotedUri;
+
+    // only available if the context for posts is resolved
+    // cf. https://docs.bsky.app/docs/api/app-bsky-feed-get-posts
+    private Post replyParent;
+    private Post replyRoot;
+    private Post quoted;
+
+    // search terms that this post was found by
+    private String[] matchedTerms;
+
+    // number of posts that were not delivered because of overload
+    //  since the previous post that was delivered
+    private int shedCount = 0;
+
+    // time (epoch millis) that the post was queued for delivery
+    private long queuedAt = 0;
+
+
+    public User getAuthor() {
+        return author;
+    }
+    public void setAuthor(User author) {
+        this.author = author;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+    public void setUri(String uri) {
+        this.uri = uri;
+    }
+
+    public String getCid() {
+        return CompactStrings.decode(cid);
+    }
+    public void setCid(String cid) {
+        this.cid = CompactStrings.encode(cid);
+    }
+
+    /** @return languages - this array may be shared with other posts so must not be modified */
+    public String[] getLangs() {
+        return langs;
+    }
+    public void setLangs(String[] langs) {
+        this.langs = CompactStrings.shareLanguages(langs);
+    }
+
+    public String getText() {
+        return text;
+    }
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /** @return createdAt timestamp such as 2024-09-30T19:40:02.943Z */
+    public String getCreatedAt() {
+        return Instant.ofEpochMilli(createdAt).toString();
+    }
+    public long getCreatedAtMillis() {
+        return createdAt;
+    }
+    /**
+     * @param createdAt - timestamp such as 2024-09-30T19:40:02.943Z
+     *  (precision beyond milliseconds is not kept)
+     * @throws java.time.format.DateTimeParseException if the timestamp is not valid
+     */
+    public void setCreatedAt(String createdAt) {
+        this.createdAt = Instant.parse(createdAt).toEpochMilli();
+    }
+
+    public String getReplyParentUri() {
+        return CompactStrings.decode(replyParentUri);
+    }
+    public void setReplyParentUri(String replyParentUri) {
+        this.replyParentUri = CompactStrings.encode(replyParentUri);
+    }
+
+    public String getReplyRootUri() {
+        return CompactStrings.decode(replyRootUri);
+    }
+    public void setReplyRootUri(String replyRootUri) {
+        this.replyRootUri = CompactStrings.encode(replyRootUri);
+    }
+
+    public String getQuotedUri() {
+        return CompactStrings.decode(quotedUri);
+    }
+    public void setQuotedUri(String quotedUri) {
+        this.quotedUri = CompactStrings.encode(quotedUri);
+    }
+
+    public Post getReplyParent() {
+        return replyParent;
+    }
+    public void setReplyParent(Post replyParent) {
+        this.replyParent = replyParent;
+    }
+
+    public Post getReplyRoot() {
+        return replyRoot;
+    }
+    public void setReplyRoot(Post replyRoot) {
+        this.replyRoot = replyRoot;
+    }
+
+    public Post getQuoted() {
+        return quoted;
+    }
+    public void setQuoted(Post quoted) {
+        this.quoted = quoted;
+    }
+
+    /** @return matched terms - this array may be shared with other posts so must not be modified */
+    public String[] getMatchedTerms() {
+        return matchedTerms;
+    }
+    public void setMatchedTerms(String[] matchedTerms) {
+        this.matchedTerms = matchedTerms;
+    }
+
+    /** @return time (epoch millis) that the post was queued for delivery, or 0 if it hasn't been */
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+    public void setQueuedAt(long queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
+    public int getShedCount() {
+        return shedCount;
+    }
+    public void setShedCount(int shedCount) {
+        this.shedCount = shedCount;
+    }
 }
@@ -0,0 +1,137 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.api;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds the posts that are being replied to or quoted to posts, by
+ *  looking up all of the distinct referenced posts from a set of
+ *  search results in as few API calls as possible.
+ */
+public class PostContextResolver {
+
+    private final Logger log = LoggerFactory.getLogger(PostContextResolver.class);
+
+    // maximum number of posts the Bluesky API will look up in one call
+    // cf. https://docs.bsky.app/docs/api/app-bsky-feed-get-posts
+    private static final int MAX_URIS_PER_REQUEST = 25;
+
+    private final BlueskyClient blueskyClient;
+
+    // posts that have been referenced recently, keyed by URI
+    //  popular threads are referenced repeatedly, so posts
+    //  are kept for as long as they are still being used
+    private final BoundedCache<String, Post> referencedPosts;
+
+    // cached for posts that Bluesky doesn't return (deleted, blocked
+    //  or not found), so that they aren't requested again in every poll
+    private static final Post NOT_FOUND = new Post();
+
+
+    public PostContextResolver(BlueskyClient blueskyClient, int cacheSize) {
+        this.blueskyClient = blueskyClient;
+        this.referencedPosts = new BoundedCache<>(cacheSize, 0);
+    }
+
+
+    /**
+     * @param deadline - time (in epoch millis) after which no more
+     *  posts are fetched - posts referencing posts that haven't been
+     *  fetched are delivered with only the referenced URI
+     */
+    public void resolve(List<Post> posts, long deadline) {
+        // distinct referenced posts that aren't already in the cache
+        Set<String> missing = new LinkedHashSet<>();
+        for (Post post : posts) {
+            addIfMissing(missing, post.getReplyParentUri());
+            addIfMissing(missing, post.getReplyRootUri());
+            addIfMissing(missing, post.getQuotedUri());
+        }
+
+        if (!missing.isEmpty()) {
+            log.debug("Fetching {} referenced posts to resolve {} posts", missing.size(), posts.size());
+            List<String> batch = new ArrayList<>(MAX_URIS_PER_REQUEST);
+            for (String uri : missing) {
+                batch.add(uri);
+                if (batch.size() == MAX_URIS_PER_REQUEST) {
+                    fetchPosts(batch, deadline);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                fetchPosts(batch, deadline);
+            }
+        }
+
+        for (Post post : posts) {
+            String replyParentUri = post.getReplyParentUri();
+            if (replyParentUri != null) {
+                post.setReplyParent(getReferencedPost(replyParentUri));
+            }
+            String replyRootUri = post.getReplyRootUri();
+            if (replyRootUri != null) {
+                post.setReplyRoot(getReferencedPost(replyRootUri));
+            }
+            String quotedUri = post.getQuotedUri();
+            if (quotedUri != null) {
+                post.setQuoted(getReferencedPost(quotedUri));
+            }
+        }
+    }
+
+
+    private Post getReferencedPost(String uri) {
+        Post post = referencedPosts.get(uri);
+        return post == NOT_FOUND ? null : post;
+    }
+
+
+    private void addIfMissing(Set<String> missing, String uri) {
+        // quote embeds can also reference lists and feed
+        //  generators, which can't be fetched as posts
+        if (uri != null && uri.contains("/app.bsky.feed.post/") && referencedPosts.get(uri) == null) {
+            missing.add(uri);
+        }
+    }
+
+
+    private void fetchPosts(List<String> uris, long deadline) {
+        if (System.currentTimeMillis() >= deadline) {
+            log.debug("No time left in poll to fetch {} referenced posts", uris.size());
+            return;
+        }
+        try {
+            Set<String> notFound = new LinkedHashSet<>(uris);
+            for (Post post : blueskyClient.getPosts(uris, deadline)) {
+                referencedPosts.put(post.getUri(), post);
+                notFound.remove(post.getUri());
+            }
+            for (String uri : notFound) {
+                referencedPosts.put(uri, NOT_FOUND);
+            }
+        }
+        catch (BlueskyException exc) {
+            // resolving is best-effort - posts referencing these
+            //  will be delivered with only the referenced URI
+            log.error("Failed to resolve referenced posts", exc);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.api;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds profile details (description, follower counts, etc.) to the
+ *  authors of posts, by looking up all of the distinct authors from
+ *  a set of search results in as few API calls as possible.
+ */
+public class ProfileHydrator {
+
+    private final Logger log = LoggerFactory.getLogger(ProfileHydrator.class);
+
+    // maximum number of actors the Bluesky API will look up in one call
+    // cf. https://docs.bsky.app/docs/api/app-bsky-actor-get-profiles
+    private static final int MAX_ACTORS_PER_REQUEST = 25;
+
+    private final BlueskyClient blueskyClient;
+
+    // profiles that have been fetched recently, keyed by DID
+    private final BoundedCache<String, User> profiles;
+
+    // cached for accounts that Bluesky doesn't return a profile for
+    //  (deleted, suspended or deactivated), so that they aren't
+    //  requested again in every poll
+    private static final User NOT_FOUND = new User();
+
+
+    public ProfileHydrator(BlueskyClient blueskyClient, int cacheSize, long cacheTtlMs) {
+        this.blueskyClient = blueskyClient;
+        this.profiles = new BoundedCache<>(cacheSize, cacheTtlMs);
+    }
+
+
+    /**
+     * @param deadline - time (in epoch millis) after which no more
+     *  profiles are fetched - posts from authors that haven't been
+     *  fetched are delivered without the additional profile info
+     */
+    public void hydrate(List<Post> posts, long deadline) {
+        // distinct authors that aren't already in the cache
+        Set<String> missing = new LinkedHashSet<>();
+        for (Post post : posts) {
+            if (profiles.get(post.getAuthor().getDid()) == null) {
+                missing.add(post.getAuthor().getDid());
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            log.debug("Fetching {} profiles to hydrate {} posts", missing.size(), posts.size());
+            List<String> batch = new ArrayList<>(MAX_ACTORS_PER_REQUEST);
+            for (String did : missing) {
+                batch.add(did);
+                if (batch.size() == MAX_ACTORS_PER_REQUEST) {
+                    fetchProfiles(batch, deadline);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                fetchProfiles(batch, deadline);
+            }
+        }
+
+        for (Post post : posts) {
+            User profile = profiles.get(post.getAuthor().getDid());
+            if (profile != null && profile != NOT_FOUND) {
+                post.getAuthor().copyProfile(profile);
+            }
+        }
+    }
+
+
+    private void fetchProfiles(List<String> dids, long deadline) {
+        if (System.currentTimeMillis() >= deadline) {
+            log.debug("No time left in poll to fetch {} profiles", dids.size());
+            return;
+        }
+        try {
+            Set<String> notFound = new HashSet<>(dids);
+            for (User profile : blueskyClient.getProfiles(dids, deadline)) {
+                profiles.put(profile.getDid(), profile);
+                notFound.remove(profile.getDid());
+            }
+            for (String did : notFound) {
+                profiles.put(did, NOT_FOUND);
+            }
+        }
+        catch (BlueskyException exc) {
+            // hydration is best-effort - posts from these authors
+            //  will be delivered without the additional profile info
+            log.error("Failed to hydrate author profiles", exc);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.api;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Timeouts and retry behaviour for Bluesky API calls.
+ */
+public class RequestPolicy {
+
+    // upper limit for the delay between retries
+    private static final long MAX_BACKOFF_MS = 1000 * 30;
+
+    // maximum time to wait for a response to a single request
+    private final long requestTimeoutMs;
+    // maximum time for an operation, including all retries
+    private final long operationTimeoutMs;
+    // number of times to retry a failed request
+    private final int maxRetries;
+    // delay before the first retry - doubled for each subsequent retry
+    private final long backoffMs;
+
+
+    public RequestPolicy(long requestTimeoutMs, long operationTimeoutMs, int maxRetries, long backoffMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.operationTimeoutMs = operationTimeoutMs;
+        this.maxRetries = maxRetries;
+        this.backoffMs = backoffMs;
+    }
+
+
+    public long getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public long getOperationTimeoutMs() {
+        return operationTimeoutMs;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+
+    /**
+     * @param retry - number of the retry, starting from 1
+     * @return how long to wait before the retry - exponential backoff
+     *  with "full jitter", so that clients that failed at the same
+     *  time don't all retry at the same time
+     */
+    public long getBackoffMs(int retry) {
+        long maxDelay = Math.min(MAX_BACKOFF_MS, backoffMs << Math.min(retry - 1, 20));
+        return ThreadLocalRandom.current().nextLong(maxDelay / 2, maxDelay + 1);
+    }
+
+
+    /**
+     * @return true for responses that indicate a temporary problem,
+     *  where the same request could succeed if it is retried
+     */
+    public boolean isRetryable(int statusCode) {
+        switch (statusCode) {
+            case 408: // request timeout
+            case 429: // rate limited
+            case 500: // internal server error
+            case 502: // bad gateway
+            case 503: // service unavailable
+            case 504: // gateway timeout
+                return true;
+            default:
+                return false;
+        }
+    }
+}
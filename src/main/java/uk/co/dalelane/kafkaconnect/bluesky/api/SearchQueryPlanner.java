@@ -0,0 +1,485 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.api;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which searches to submit to Bluesky to fetch new posts
+ *  for a set of search terms, and keeps track of the most recent
+ *  post that has been fetched for each term.
+ *
+ * If coalescing is enabled, low-volume terms are combined into a
+ *  single OR query, and the posts that are returned are matched
+ *  back to the terms that they contain. Terms that start returning
+ *  a lot of posts are moved back into their own queries.
+ */
+public class SearchQueryPlanner {
+
+    private final Logger log = LoggerFactory.getLogger(SearchQueryPlanner.class);
+
+    // search terms, keyed by the term
+    private final Map<String, SearchTerm> terms = new LinkedHashMap<>();
+
+    // whether low-volume terms should be combined
+    private final boolean coalesce;
+    // maximum length of a combined query
+    private final int maxQueryLength;
+    // terms that average more than this many posts per poll
+    //  are searched for on their own
+    private final int volumeThreshold;
+
+    // weight given to the most recent poll when updating the
+    //  average number of posts per poll for a term
+    private static final double VOLUME_SMOOTHING = 0.5;
+
+    // how long to stop searching for a term that Bluesky rejected
+    //  (e.g. because of invalid search syntax)
+    private static final long QUARANTINE_MS = 1000 * 60 * 10;
+
+    // terms that use search syntax (e.g. "from:", "lang:", boolean
+    //  operators, grouping) can't safely be combined with others
+    private static final Pattern PLAIN_TERM = Pattern.compile("\"[^\"():]+\"|[^\"():\\s]+(\\s+[^\"():\\s]+)*");
+    private static final Pattern OPERATOR = Pattern.compile("(^|\\s)(OR|AND|NOT|\\|\\||&&)(\\s|$)");
+
+
+
+    private static class SearchTerm {
+        final String term;
+        // lower-case phrases from the term that a post must
+        //  contain for it to match (only for combinable terms)
+        final List<String> phrases;
+        // whether the term can be combined with other terms
+        final boolean combinable;
+        // shared by all posts that only matched this term
+        final String[] matchedTerms;
+
+        // createdAt timestamp (epoch millis) of the most recent post
+        //  fetched for this term, or NO_POSITION if none have been
+        long lastPostMillis;
+        // whether the most recent search fetched all of the available
+        //  posts, rather than stopping at a failure or the poll deadline
+        boolean caughtUp = true;
+        // average number of posts per poll
+        double volume = 0;
+        // whether the term is currently searched for on its own
+        boolean standalone = false;
+        // time (epoch millis) until which the term isn't searched
+        //  for, because Bluesky rejected it
+        long quarantinedUntil = 0;
+
+        SearchTerm(String term, long lastPostMillis) {
+            this.term = term;
+            this.lastPostMillis = lastPostMillis;
+            this.matchedTerms = new String[] { term };
+            this.combinable = PLAIN_TERM.matcher(term).matches() && !OPERATOR.matcher(term).find();
+            this.phrases = new ArrayList<>();
+            if (combinable) {
+                String lowerCaseTerm = term.toLowerCase(Locale.ROOT);
+                if (lowerCaseTerm.startsWith("\"")) {
+                    phrases.add(lowerCaseTerm.substring(1, lowerCaseTerm.length() - 1));
+                }
+                else {
+                    Collections.addAll(phrases, lowerCaseTerm.split("\\s+"));
+                }
+            }
+        }
+
+        boolean matches(String lowerCaseText) {
+            for (String phrase : phrases) {
+                if (!lowerCaseText.contains(phrase)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String asQueryClause() {
+            return phrases.size() > 1 ? "(" + term + ")" : term;
+        }
+    }
+
+
+
+    public SearchQueryPlanner(boolean coalesce, int maxQueryLength, int volumeThreshold) {
+        this.coalesce = coalesce;
+        this.maxQueryLength = maxQueryLength;
+        this.volumeThreshold = volumeThreshold;
+    }
+
+
+    /**
+     * @param lastPostTimestamp - createdAt timestamp of the most recent
+     *  post previously fetched for this term, or null to start from
+     *  the most recent posts
+     */
+    public synchronized void addTerm(String term, String lastPostTimestamp) {
+        if (!terms.containsKey(term)) {
+            log.info("Adding search term {} with offset {}", term, lastPostTimestamp);
+            terms.put(term, new SearchTerm(term, parseTimestamp(lastPostTimestamp)));
+        }
+    }
+
+
+    public synchronized void removeTerm(String term) {
+        if (terms.remove(term) != null) {
+            log.info("Removing search term {}", term);
+        }
+    }
+
+
+    public synchronized boolean hasTerm(String term) {
+        return terms.containsKey(term);
+    }
+
+
+    public synchronized List<String> getTerms() {
+        return new ArrayList<>(terms.keySet());
+    }
+
+
+    /**
+     * Moves the position for all search terms that are behind the
+     *  provided timestamp (in epoch millis) forward to it, so that
+     *  older posts are not fetched.
+     */
+    public synchronized void skipTo(long timestampMillis) {
+        for (SearchTerm term : terms.values()) {
+            if (term.lastPostMillis < timestampMillis) {
+                log.info("Skipping search for {} ahead from {} to {}", term.term, formatTimestamp(term.lastPostMillis), formatTimestamp(timestampMillis));
+                term.lastPostMillis = timestampMillis;
+            }
+        }
+    }
+
+
+    /**
+     * @return how far (in milliseconds) the search term that is furthest
+     *  behind is from the current time, or 0 if all of the searches
+     *  fetched all of the available posts in the most recent poll
+     *
+     * This is based on the search positions, which only move to the
+     *  newest post fetched, so it isn't affected by backdated posts.
+     *  Terms that don't have many posts aren't treated as being behind,
+     *  even if their most recent post is old.
+     */
+    public synchronized long getSearchLag() {
+        long now = System.currentTimeMillis();
+        long lag = 0;
+        for (SearchTerm term : terms.values()) {
+            if (!term.caughtUp && term.lastPostMillis != BlueskyClient.NO_POSITION && term.quarantinedUntil <= now) {
+                lag = Math.max(lag, now - term.lastPostMillis);
+            }
+        }
+        return lag;
+    }
+
+
+    /**
+     * Fetches new posts for all of the search terms.
+     *
+     * If a query fails, the remaining queries are still submitted, and
+     *  the first failure is thrown once they have all been attempted.
+     *  Posts fetched before a failure are still added to the results,
+     *  and the positions for the search terms only include those posts.
+     *
+     * @param deadline - time (in epoch millis) by which all of the
+     *  searches must be complete
+     * @param results - posts are added to this in chronological order
+     *  for each query, with the terms that each post matched in matchedTerms
+     *
+     * The planner is only locked while the searches are planned and the
+     *  positions are updated, not while waiting for Bluesky, so terms can
+     *  be added or removed while a search is running. This must not be
+     *  called by more than one thread at a time.
+     */
+    public void search(BlueskyClient client, int limit, long deadline, List<Post> results) throws BlueskyException {
+        List<List<SearchTerm>> queries;
+        synchronized (this) {
+            queries = plan(limit);
+        }
+
+        BlueskyException failure = null;
+        Map<SearchTerm, Integer> counts = new LinkedHashMap<>();
+        for (List<SearchTerm> query : queries) {
+            try {
+                searchQuery(client, query, limit, deadline, results, counts);
+            }
+            catch (BlueskyException exc) {
+                if (failure == null) {
+                    failure = exc;
+                }
+            }
+        }
+        synchronized (this) {
+            updateVolumes(counts);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+
+
+    /**
+     * Groups the search terms into the queries that should be submitted.
+     *
+     * Combined queries are limited by length, and by the total number of
+     *  posts per poll expected for their terms, so that they are unlikely
+     *  to return more posts than fit in a single page of results.
+     */
+    private List<List<SearchTerm>> plan(int limit) {
+        List<List<SearchTerm>> queries = new ArrayList<>();
+
+        // leaves room for bursts above the average volume
+        double maxCombinedVolume = limit / 2.0;
+
+        List<SearchTerm> combined = new ArrayList<>();
+        int combinedLength = 0;
+        double combinedVolume = 0;
+        long now = System.currentTimeMillis();
+        for (SearchTerm term : terms.values()) {
+            if (term.quarantinedUntil > now) {
+                continue;
+            }
+            if (!coalesce || term.standalone || !term.combinable) {
+                queries.add(Collections.singletonList(term));
+                continue;
+            }
+
+            String clause = term.asQueryClause();
+            int lengthWithTerm = combined.isEmpty() ?
+                clause.length() :
+                combinedLength + " OR ".length() + clause.length();
+            double volumeWithTerm = combinedVolume + term.volume;
+            if (!combined.isEmpty() &&
+                (lengthWithTerm > maxQueryLength || volumeWithTerm > maxCombinedVolume))
+            {
+                queries.add(combined);
+                combined = new ArrayList<>();
+                lengthWithTerm = clause.length();
+                volumeWithTerm = term.volume;
+            }
+            combined.add(term);
+            combinedLength = lengthWithTerm;
+            combinedVolume = volumeWithTerm;
+        }
+        if (!combined.isEmpty()) {
+            queries.add(combined);
+        }
+
+        return queries;
+    }
+
+
+    private void searchQuery(BlueskyClient client, List<SearchTerm> query, int limit, long deadline, List<Post> results, Map<SearchTerm, Integer> counts) throws BlueskyException {
+        if (query.size() == 1) {
+            SearchTerm term = query.get(0);
+            long since;
+            synchronized (this) {
+                since = term.lastPostMillis;
+            }
+
+            List<Post> posts = new ArrayList<>();
+            BlueskyException failure = null;
+            try {
+                client.search(term.term, since, limit, deadline, posts);
+            }
+            catch (BlueskyException exc) {
+                failure = exc;
+            }
+
+            synchronized (this) {
+                for (Post post : posts) {
+                    post.setMatchedTerms(term.matchedTerms);
+                    term.lastPostMillis = post.getCreatedAtMillis();
+                }
+                term.caughtUp = failure == null;
+                if (failure != null && failure.isRequestRejected()) {
+                    // other terms can still be searched for, and the
+                    //  term can be fixed or removed without a restart
+                    log.error("Bluesky rejected the search for {} - not searching for it for {} ms", term.term, QUARANTINE_MS, failure);
+                    term.quarantinedUntil = System.currentTimeMillis() + QUARANTINE_MS;
+                    failure = null;
+                }
+            }
+            counts.put(term, posts.size());
+            results.addAll(posts);
+
+            if (failure != null) {
+                throw failure;
+            }
+            return;
+        }
+
+        // combined queries start from the oldest position of any of
+        //  the terms, so posts that have already been fetched for
+        //  terms that are further ahead need to be skipped
+        StringBuilder combinedQuery = new StringBuilder();
+        long since = Long.MAX_VALUE;
+        synchronized (this) {
+            for (SearchTerm term : query) {
+                if (combinedQuery.length() > 0) {
+                    combinedQuery.append(" OR ");
+                }
+                combinedQuery.append(term.asQueryClause());
+                counts.put(term, 0);
+                since = Math.min(since, term.lastPostMillis);
+            }
+        }
+
+        List<Post> posts = new ArrayList<>();
+        BlueskyException failure = null;
+        try {
+            client.search(combinedQuery.toString(), since, limit, deadline, posts);
+        }
+        catch (BlueskyException exc) {
+            failure = exc;
+        }
+
+        boolean overflowed = failure == null && posts.size() >= limit;
+        boolean rejected = failure != null && failure.isRequestRejected();
+        if (overflowed || rejected) {
+            // a full page means that there could be more posts than the
+            //  search returned, which would be skipped if the positions
+            //  for the terms moved past them - so the posts are discarded
+            //  and the terms are searched for in smaller groups instead
+            // a rejected search is split in the same way, to find the
+            //  term that Bluesky rejected
+            log.info("Combined search for {} terms {} - splitting it",
+                     query.size(), overflowed ? "returned a full page of posts" : "was rejected");
+            failure = null;
+            int half = query.size() / 2;
+            try {
+                searchQuery(client, query.subList(0, half), limit, deadline, results, counts);
+            }
+            catch (BlueskyException exc) {
+                failure = exc;
+            }
+            searchQuery(client, query.subList(half, query.size()), limit, deadline, results, counts);
+            if (failure != null) {
+                throw failure;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            for (Post post : posts) {
+                List<SearchTerm> matched = new ArrayList<>();
+                String text = post.getText().toLowerCase(Locale.ROOT);
+                for (SearchTerm term : query) {
+                    if (term.matches(text)) {
+                        matched.add(term);
+                    }
+                }
+                if (matched.isEmpty()) {
+                    // Bluesky search matches more than simple text (e.g. stemming,
+                    //  alt text, links) so posts can be returned that don't contain
+                    //  any term - these are attributed to all of the terms
+                    log.debug("Unable to match post {} to a search term", post.getUri());
+                    matched.addAll(query);
+                }
+
+                // matched terms that this post is new for
+                List<SearchTerm> newForTerms = new ArrayList<>();
+                for (SearchTerm term : matched) {
+                    if (term.lastPostMillis < post.getCreatedAtMillis()) {
+                        newForTerms.add(term);
+                        counts.put(term, counts.get(term) + 1);
+                    }
+                }
+                if (newForTerms.size() == 1) {
+                    post.setMatchedTerms(newForTerms.get(0).matchedTerms);
+                    results.add(post);
+                }
+                else if (!newForTerms.isEmpty()) {
+                    String[] matchedTerms = new String[newForTerms.size()];
+                    for (int i = 0; i < matchedTerms.length; i++) {
+                        matchedTerms[i] = newForTerms.get(i).term;
+                    }
+                    post.setMatchedTerms(matchedTerms);
+                    results.add(post);
+                }
+            }
+
+            if (!posts.isEmpty()) {
+                long newest = posts.get(posts.size() - 1).getCreatedAtMillis();
+                for (SearchTerm term : query) {
+                    term.lastPostMillis = Math.max(term.lastPostMillis, newest);
+                }
+            }
+            for (SearchTerm term : query) {
+                term.caughtUp = failure == null;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+
+    private void updateVolumes(Map<SearchTerm, Integer> counts) {
+        for (Map.Entry<SearchTerm, Integer> count : counts.entrySet()) {
+            SearchTerm term = count.getKey();
+            term.volume = (VOLUME_SMOOTHING * count.getValue()) + ((1 - VOLUME_SMOOTHING) * term.volume);
+
+            // terms are only moved back into a combined query once they
+            //  are well below the threshold, to avoid terms near the
+            //  threshold being moved back and forth on every poll
+            if (coalesce && !term.standalone && term.volume > volumeThreshold) {
+                log.info("Searching for high-volume term {} separately", term.term);
+                term.standalone = true;
+            }
+            else if (term.standalone && term.volume < volumeThreshold / 2.0) {
+                log.info("Combining low-volume term {} with other terms", term.term);
+                term.standalone = false;
+            }
+        }
+    }
+
+
+    /**
+     * @return epoch millis for a createdAt timestamp, or NO_POSITION
+     *  if there isn't a valid timestamp
+     */
+    private long parseTimestamp(String timestamp) {
+        if (timestamp == null) {
+            return BlueskyClient.NO_POSITION;
+        }
+        try {
+            return Instant.parse(timestamp).toEpochMilli();
+        }
+        catch (DateTimeParseException exc) {
+            log.error("Failed to parse createdAt timestamp {} - fetching the most recent posts instead", timestamp);
+            return BlueskyClient.NO_POSITION;
+        }
+    }
+
+
+    private static String formatTimestamp(long timestampMillis) {
+        return timestampMillis == BlueskyClient.NO_POSITION ? null : Instant.ofEpochMilli(timestampMillis).toString();
+    }
+}
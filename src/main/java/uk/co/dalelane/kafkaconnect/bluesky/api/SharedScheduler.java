@@ -0,0 +1,256 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.api;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the periodic background work (polling, session refreshing)
+ *  for all of the tasks running in a Connect worker.
+ *
+ * A single timer thread decides when work is due, and hands it to
+ *  a pool of worker threads (or virtual threads, where available)
+ *  to run, so idle tasks don't each need their own threads.
+ *
+ * The scheduler is shared by reference counting - each user
+ *  should call acquire() when it starts and release() when it
+ *  stops, and the threads are stopped when there are no users left.
+ */
+public class SharedScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedScheduler.class);
+
+    // the scheduler that is currently shared by all users
+    private static SharedScheduler instance = null;
+    // number of users of the current scheduler
+    private static int references = 0;
+
+
+    // decides when work is due
+    private final ScheduledExecutorService timer;
+    // runs the work
+    private final ExecutorService workers;
+
+
+
+    /**
+     * Handle for a piece of work that has been scheduled to run repeatedly.
+     */
+    public interface ScheduledWork {
+        /** Stops the work from being run again. */
+        void cancel();
+        /**
+         * Runs the work after the provided delay, instead of waiting for its
+         *  next scheduled time. If the work is currently running, the delay
+         *  is measured from when it finishes.
+         */
+        void runAfter(long delayMs);
+    }
+
+
+
+    /**
+     * @param useVirtualThreads - only used if this is the first user of
+     *  the scheduler - if true, and the JVM supports virtual threads,
+     *  work will be run on virtual threads
+     */
+    public static synchronized SharedScheduler acquire(boolean useVirtualThreads) {
+        if (instance == null) {
+            instance = new SharedScheduler(useVirtualThreads);
+        }
+        references += 1;
+        log.debug("Acquired shared scheduler - {} users", references);
+        return instance;
+    }
+
+
+    public static synchronized void release(SharedScheduler scheduler) {
+        if (scheduler != instance) {
+            return;
+        }
+        references -= 1;
+        log.debug("Released shared scheduler - {} users", references);
+        if (references == 0) {
+            log.info("Stopping shared scheduler");
+            instance.timer.shutdownNow();
+            instance.workers.shutdownNow();
+            instance = null;
+        }
+    }
+
+
+
+    private SharedScheduler(boolean useVirtualThreads) {
+        ScheduledThreadPoolExecutor timerExecutor = new ScheduledThreadPoolExecutor(1, createThreadFactory("bluesky-scheduler"));
+        // tasks stop frequently, so don't keep cancelled work queued
+        //  until the time it would have run
+        timerExecutor.setRemoveOnCancelPolicy(true);
+        timer = timerExecutor;
+
+        ExecutorService virtualThreadExecutor = null;
+        if (useVirtualThreads) {
+            virtualThreadExecutor = createVirtualThreadExecutor();
+        }
+        if (virtualThreadExecutor != null) {
+            log.info("Starting shared scheduler using virtual threads");
+            workers = virtualThreadExecutor;
+        }
+        else {
+            // threads are created as needed, and removed
+            //  after they have been idle for a minute
+            log.info("Starting shared scheduler using a thread pool");
+            workers = Executors.newCachedThreadPool(createThreadFactory("bluesky-worker"));
+        }
+    }
+
+
+    /**
+     * Runs the work repeatedly, waiting for the interval between each
+     *  run finishing and the next one starting.
+     *
+     * Each delay is randomly adjusted by up to jitterMs in either
+     *  direction, to avoid all tasks polling at the same time.
+     *
+     * Exceptions thrown by the work are logged, and do not prevent
+     *  it from being run again.
+     */
+    public ScheduledWork schedule(String name, Runnable work, long initialDelayMs, long intervalMs, long jitterMs) {
+        RepeatingWork repeatingWork = new RepeatingWork(name, work, intervalMs, jitterMs);
+        repeatingWork.scheduleNext(initialDelayMs);
+        return repeatingWork;
+    }
+
+
+
+    private class RepeatingWork implements ScheduledWork {
+        private final String name;
+        private final Runnable work;
+        private final long intervalMs;
+        private final long jitterMs;
+
+        private volatile boolean cancelled = false;
+        private ScheduledFuture<?> next = null;
+
+        // true while the work is being run
+        private boolean running = false;
+        // delay requested by runAfter() while the work was running,
+        //  to use instead of the interval when it finishes
+        private long requestedDelayMs = -1;
+
+        RepeatingWork(String name, Runnable work, long intervalMs, long jitterMs) {
+            this.name = name;
+            this.work = work;
+            this.intervalMs = intervalMs;
+            this.jitterMs = jitterMs;
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
+
+        @Override
+        public synchronized void runAfter(long delayMs) {
+            if (running) {
+                // the work is running (possibly the caller), so the
+                //  delay is used when scheduling it after it finishes
+                if (requestedDelayMs < 0 || delayMs < requestedDelayMs) {
+                    requestedDelayMs = delayMs;
+                }
+            }
+            else if (next != null && next.cancel(false)) {
+                // the work wasn't running, so can be brought forward
+                scheduleNext(delayMs);
+            }
+        }
+
+        private synchronized void scheduleNext(long delayMs) {
+            if (cancelled) {
+                return;
+            }
+            long jitter = jitterMs > 0 ? ThreadLocalRandom.current().nextLong(-jitterMs, jitterMs + 1) : 0;
+            try {
+                next = timer.schedule(() -> workers.execute(this::run),
+                                      Math.max(0, delayMs + jitter),
+                                      TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException exc) {
+                log.debug("Scheduler has been stopped - not scheduling {}", name);
+            }
+        }
+
+        private void run() {
+            synchronized (this) {
+                running = true;
+                requestedDelayMs = -1;
+            }
+            try {
+                if (!cancelled) {
+                    work.run();
+                }
+            }
+            catch (Throwable thr) {
+                log.error("Unexpected failure in {}", name, thr);
+            }
+            finally {
+                synchronized (this) {
+                    running = false;
+                    scheduleNext(requestedDelayMs >= 0 ? Math.min(requestedDelayMs, intervalMs) : intervalMs);
+                }
+            }
+        }
+    }
+
+
+
+    private static ThreadFactory createThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        // virtual threads are only available in Java 21+ so this
+        //  needs to be accessed by reflection while Java 17 is
+        //  still supported
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException exc) {
+            log.warn("Virtual threads are not available in this JVM - using a thread pool instead");
+            return null;
+        }
+    }
+}
@@ -13,8 +13,98 @@
  */
 package uk.co.dalelane.kafkaconnect.bluesky.api;
 
+/**
+ * The author of a Bluesky post.
+ *
+ * The avatar URL is stored as bytes, for the same reasons as the
+ *  identifiers in Post. Identifiers that are used as keys and free
+ *  text are kept as strings.
+ */
 public class User {
-    public String handle;
-    public String displayName;
-    public String avatar;
+    // used for counts that are not available
+    private static final long UNKNOWN = -1;
+
+    private String did;
+    private String handle;
+    private String displayName;
+    private byte[] avatar;
+
+    // only available if profiles are hydrated
+    // cf. https://docs.bsky.app/docs/api/app-bsky-actor-get-profiles
+    private String description;
+    private long followersCount = UNKNOWN;
+    private long followsCount = UNKNOWN;
+    private long postsCount = UNKNOWN;
+
+
+    /**
+     * Copies the additional details from a hydrated profile - the
+     *  details are shared, rather than duplicated for every post
+     */
+    public void copyProfile(User profile) {
+        this.description = profile.description;
+        this.followersCount = profile.followersCount;
+        this.followsCount = profile.followsCount;
+        this.postsCount = profile.postsCount;
+    }
+
+
+    public String getDid() {
+        return did;
+    }
+    public void setDid(String did) {
+        this.did = did;
+    }
+
+    public String getHandle() {
+        return handle;
+    }
+    public void setHandle(String handle) {
+        this.handle = handle;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+    public void setDisplayName(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getAvatar() {
+        return CompactStrings.decode(avatar);
+    }
+    public void setAvatar(String avatar) {
+        this.avatar = CompactStrings.encode(avatar);
+    }
+
+    public String getDescription() {
+        return description;
+    }
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    /** @return follower count, or null if not known */
+    public Long getFollowersCount() {
+        return followersCount == UNKNOWN ? null : followersCount;
+    }
+    public void setFollowersCount(Long followersCount) {
+        this.followersCount = followersCount == null ? UNKNOWN : followersCount;
+    }
+
+    /** @return follows count, or null if not known */
+    public Long getFollowsCount() {
+        return followsCount == UNKNOWN ? null : followsCount;
+    }
+    public void setFollowsCount(Long followsCount) {
+        this.followsCount = followsCount == null ? UNKNOWN : followsCount;
+    }
+
+    /** @return posts count, or null if not known */
+    public Long getPostsCount() {
+        return postsCount == UNKNOWN ? null : postsCount;
+    }
+    public void setPostsCount(Long postsCount) {
+        this.postsCount = postsCount == null ? UNKNOWN : postsCount;
+    }
 }
@@ -0,0 +1,61 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for posts being discarded because the
+ *  connector is overloaded.
+ */
+@Name("uk.co.dalelane.kafkaconnect.bluesky.LoadShedding")
+@Label("Bluesky Load Shedding")
+@Description("Posts discarded from a poll because the connector is overloaded")
+@Category({ "Kafka Connect", "Bluesky" })
+@StackTrace(false)
+public class LoadSheddingEvent extends jdk.jfr.Event {
+
+    @Label("Policy")
+    public String policy;
+
+    @Label("Overloaded")
+    public boolean overloaded;
+
+    @Label("Queue Depth")
+    @Description("Number of fetched posts waiting to be collected by Kafka Connect")
+    public int queueDepth;
+
+    @Label("Backlog Age")
+    @Description("Time that the longest-waiting post has been waiting to be delivered")
+    @Timespan(Timespan.MILLISECONDS)
+    public long backlogAge;
+
+    @Label("Search Lag")
+    @Description("How far the search that is furthest behind is from the current time")
+    @Timespan(Timespan.MILLISECONDS)
+    public long searchLag;
+
+    @Label("Received")
+    @Description("Number of posts fetched in the poll")
+    public int received;
+
+    @Label("Shed")
+    @Description("Number of posts discarded, including posts already waiting to be collected")
+    public int shed;
+}
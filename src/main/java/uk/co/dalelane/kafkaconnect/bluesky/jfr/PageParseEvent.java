@@ -0,0 +1,39 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for parsing a page of search results
+ *  from JSON into posts.
+ */
+@Name("uk.co.dalelane.kafkaconnect.bluesky.PageParse")
+@Label("Bluesky Page Parse")
+@Description("Parsing of a page of search results from the Bluesky API")
+@Category({ "Kafka Connect", "Bluesky" })
+@StackTrace(false)
+public class PageParseEvent extends jdk.jfr.Event {
+
+    @Label("Search Term")
+    public String term;
+
+    @Label("Post Count")
+    @Description("Number of posts successfully parsed from the page")
+    public int postCount;
+}
@@ -0,0 +1,42 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for posts fetched in the background
+ *  being handed over to Kafka Connect in a call to poll().
+ */
+@Name("uk.co.dalelane.kafkaconnect.bluesky.Poll")
+@Label("Bluesky Poll")
+@Description("Hand-off of fetched posts to the Kafka Connect task")
+@Category({ "Kafka Connect", "Bluesky" })
+@StackTrace(false)
+public class PollEvent extends jdk.jfr.Event {
+
+    @Label("Batch Size")
+    @Description("Number of posts returned to Kafka Connect")
+    public int batchSize;
+
+    @Label("Wait Time")
+    @Description("Time spent waiting for the lock on the buffer of fetched posts")
+    @Timespan(Timespan.NANOSECONDS)
+    public long waitTime;
+}
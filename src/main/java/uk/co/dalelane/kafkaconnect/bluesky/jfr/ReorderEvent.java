@@ -0,0 +1,48 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for posts being released from the buffer
+ *  that puts them into chronological order.
+ */
+@Name("uk.co.dalelane.kafkaconnect.bluesky.Reorder")
+@Label("Bluesky Reorder")
+@Description("Release of posts from the reorder buffer")
+@Category({ "Kafka Connect", "Bluesky" })
+@StackTrace(false)
+public class ReorderEvent extends jdk.jfr.Event {
+
+    @Label("Released")
+    @Description("Number of posts released in chronological order")
+    public int released;
+
+    @Label("Forced")
+    @Description("Number of posts released early because the buffer was full")
+    public int forced;
+
+    @Label("Late")
+    @Description("Number of posts discarded because newer posts for the same search term had already been released")
+    public int late;
+
+    @Label("Buffered")
+    @Description("Number of posts still waiting in the buffer")
+    public int buffered;
+}
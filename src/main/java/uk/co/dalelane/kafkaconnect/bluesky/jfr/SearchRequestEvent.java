@@ -0,0 +1,56 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a single page of search results
+ *  being fetched from Bluesky. Covers the HTTP request until
+ *  the response headers are received - the response body is
+ *  streamed while it is being parsed.
+ */
+@Name("uk.co.dalelane.kafkaconnect.bluesky.SearchRequest")
+@Label("Bluesky Search Request")
+@Description("Request for a page of search results from the Bluesky API")
+@Category({ "Kafka Connect", "Bluesky" })
+@StackTrace(false)
+public class SearchRequestEvent extends jdk.jfr.Event {
+
+    @Label("Search Term")
+    public String term;
+
+    @Label("Page")
+    @Description("Page number within the current poll, starting from 1")
+    public int page;
+
+    @Label("Response Size")
+    @Description("Size of the response after decompression")
+    @DataAmount
+    public long bytes;
+
+    @Label("Transferred Size")
+    @Description("Size of the response received over the network")
+    @DataAmount
+    public long wireBytes;
+
+    @Label("HTTP Status")
+    @Description("Response code from Bluesky, or 0 if no response was received")
+    public int statusCode;
+}
@@ -0,0 +1,45 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for logging in to Bluesky, or
+ *  refreshing an existing session.
+ */
+@Name("uk.co.dalelane.kafkaconnect.bluesky.Session")
+@Label("Bluesky Session")
+@Description("Login or session refresh request to the Bluesky API")
+@Category({ "Kafka Connect", "Bluesky" })
+@StackTrace(false)
+public class SessionEvent extends jdk.jfr.Event {
+
+    public static final String LOGIN = "login";
+    public static final String REFRESH = "refresh";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("HTTP Status")
+    @Description("Response code from Bluesky, or 0 if no response was received")
+    public int statusCode;
+
+    @Label("Success")
+    public boolean success;
+}
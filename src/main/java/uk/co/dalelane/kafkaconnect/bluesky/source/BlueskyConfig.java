@@ -13,9 +13,12 @@
  */
 package uk.co.dalelane.kafkaconnect.bluesky.source;
 
+import java.time.Instant;
+
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.ConfigDef.Importance;
 import org.apache.kafka.common.config.ConfigDef.Type;
+import org.apache.kafka.common.config.ConfigException;
 
 
 /**
@@ -27,8 +30,40 @@ public class BlueskyConfig {
     public static final String IDENTITY = "bluesky.identity";
     public static final String APP_PASSWORD = "bluesky.password";
     public static final String SEARCH_TERM = "bluesky.searchterm";
+    public static final String SEARCH_TERMS = "bluesky.searchterms";
+    public static final String SEARCH_TERMS_FILE = "bluesky.searchterms.file";
+    public static final String SEARCH_TERMS_FILE_CHECK_MS = "bluesky.searchterms.file.check.ms";
+    public static final String SEARCH_TERMS_INITIAL_POSITION = "bluesky.searchterms.initial.position";
+    public static final String QUERY_COALESCE = "bluesky.query.coalesce";
+    public static final String QUERY_MAX_LENGTH = "bluesky.query.max.length";
+    public static final String QUERY_COALESCE_THRESHOLD = "bluesky.query.coalesce.threshold";
     public static final String POLL_INTERVAL_MS = "bluesky.poll.ms";
+    public static final String POLL_JITTER_MS = "bluesky.poll.jitter.ms";
+    public static final String POLL_TIMEOUT_MS = "bluesky.poll.timeout.ms";
+    public static final String POLL_RETRY_MS = "bluesky.poll.retry.ms";
+    public static final String REQUEST_TIMEOUT_MS = "bluesky.request.timeout.ms";
+    public static final String REQUEST_RETRIES = "bluesky.request.retries";
+    public static final String REQUEST_RETRY_BACKOFF_MS = "bluesky.request.retry.backoff.ms";
+    public static final String CIRCUIT_FAILURE_THRESHOLD = "bluesky.circuit.failure.threshold";
+    public static final String CIRCUIT_OPEN_MS = "bluesky.circuit.open.ms";
+    public static final String VIRTUAL_THREADS = "bluesky.virtual.threads";
+    public static final String OVERLOAD_POLICY = "bluesky.overload.policy";
+    public static final String OVERLOAD_QUEUE_DEPTH = "bluesky.overload.queue.depth";
+    public static final String OVERLOAD_BACKLOG_AGE_MS = "bluesky.overload.backlog.age.ms";
+    public static final String OVERLOAD_SAMPLE_RATE = "bluesky.overload.sample.rate";
+    public static final String OVERLOAD_PRIORITY_LANGS = "bluesky.overload.priority.langs";
+    public static final String OVERLOAD_PRIORITY_AUTHORS = "bluesky.overload.priority.authors";
+    public static final String OVERLOAD_PREFER_FRESHNESS = "bluesky.overload.prefer.freshness";
     public static final String TOPIC = "bluesky.topic";
+    public static final String REORDER_LATENESS_MS = "bluesky.reorder.lateness.ms";
+    public static final String REORDER_MAX_POSTS = "bluesky.reorder.max.posts";
+    public static final String ENVELOPE_MAX_POSTS = "bluesky.envelope.max.posts";
+    public static final String ENVELOPE_MAX_MS = "bluesky.envelope.max.ms";
+    public static final String ENRICH_PROFILES = "bluesky.enrich.profiles";
+    public static final String ENRICH_PROFILES_CACHE_SIZE = "bluesky.enrich.profiles.cache.size";
+    public static final String ENRICH_PROFILES_CACHE_TTL_MS = "bluesky.enrich.profiles.cache.ttl.ms";
+    public static final String ENRICH_CONTEXT = "bluesky.enrich.context";
+    public static final String ENRICH_CONTEXT_CACHE_SIZE = "bluesky.enrich.context.cache.size";
 
     public static final ConfigDef CONFIG_DEF = new ConfigDef()
         .define(IDENTITY,
@@ -48,16 +83,215 @@ public class BlueskyConfig {
                 new ConfigDef.NonEmptyString(),
                 Importance.HIGH,
                 "Term to search for")
+        .define(SEARCH_TERMS,
+                Type.LIST,
+                "",
+                Importance.HIGH,
+                "Terms to search for - if provided, this is used instead of " + SEARCH_TERM)
+        .define(SEARCH_TERMS_FILE,
+                Type.STRING,
+                null,
+                Importance.MEDIUM,
+                "File containing terms to search for, one per line - if provided, this is used instead of " + SEARCH_TERMS + " and can be modified while the connector is running")
+        .define(SEARCH_TERMS_FILE_CHECK_MS,
+                Type.INT,
+                1000 * 30, // thirty seconds
+                ConfigDef.Range.atLeast(1000),
+                Importance.LOW,
+                "How often (in milliseconds) to check if the search terms file has been modified")
+        .define(SEARCH_TERMS_INITIAL_POSITION,
+                Type.STRING,
+                BlueskySearchTerms.INITIAL_POSITION_RECENT,
+                ConfigDef.LambdaValidator.with(
+                    (name, value) -> {
+                        if (BlueskySearchTerms.INITIAL_POSITION_RECENT.equals(value) ||
+                            BlueskySearchTerms.INITIAL_POSITION_NOW.equals(value))
+                        {
+                            return;
+                        }
+                        try {
+                            Instant.parse((String) value);
+                        }
+                        catch (RuntimeException exc) {
+                            throw new ConfigException(name, value, "Must be recent, now, or a timestamp such as 2024-09-30T19:40:02.943Z");
+                        }
+                    },
+                    () -> "recent, now, or a timestamp such as 2024-09-30T19:40:02.943Z"),
+                Importance.LOW,
+                "Where to start fetching posts for a search term that has not been searched for before - the most recent posts, posts created from now, or posts created after a timestamp")
+        .define(QUERY_COALESCE,
+                Type.BOOLEAN,
+                false,
+                Importance.LOW,
+                "Whether to combine low-volume search terms into a single search")
+        .define(QUERY_MAX_LENGTH,
+                Type.INT,
+                256,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "Maximum length of a search that combines multiple search terms")
+        .define(QUERY_COALESCE_THRESHOLD,
+                Type.INT,
+                20,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "Search terms that average more than this number of posts per poll are searched for separately")
         .define(POLL_INTERVAL_MS,
                 Type.INT,
                 1000 * 60, // one minute
                 ConfigDef.Range.atLeast(30_000),
                 Importance.HIGH,
                 "How long to wait (in milliseconds) between submitting searches to the Bluesky API")
+        .define(POLL_JITTER_MS,
+                Type.INT,
+                5_000,
+                ConfigDef.Range.between(0, 30_000),
+                Importance.LOW,
+                "Maximum random adjustment (in milliseconds) to the poll interval, to spread out polls from multiple tasks")
+        .define(POLL_TIMEOUT_MS,
+                Type.INT,
+                1000 * 60, // one minute
+                ConfigDef.Range.atLeast(1000),
+                Importance.LOW,
+                "Maximum time (in milliseconds) for all of the searches in a poll, including retries - searches that are not complete by then are continued in the next poll")
+        .define(POLL_RETRY_MS,
+                Type.INT,
+                1000 * 10, // ten seconds
+                ConfigDef.Range.atLeast(0),
+                Importance.LOW,
+                "How long to wait (in milliseconds) before polling again after a poll fails with a temporary problem, instead of waiting for the poll interval")
+        .define(REQUEST_TIMEOUT_MS,
+                Type.INT,
+                1000 * 30, // thirty seconds
+                ConfigDef.Range.atLeast(1000),
+                Importance.LOW,
+                "Maximum time (in milliseconds) to wait for a response from the Bluesky API")
+        .define(REQUEST_RETRIES,
+                Type.INT,
+                3,
+                ConfigDef.Range.atLeast(0),
+                Importance.LOW,
+                "Number of times to retry a Bluesky API call that fails with a temporary problem, such as a timeout or a 503 response")
+        .define(REQUEST_RETRY_BACKOFF_MS,
+                Type.INT,
+                1000,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "Delay (in milliseconds) before the first retry of a Bluesky API call - doubled for each subsequent retry, with a random adjustment")
+        .define(CIRCUIT_FAILURE_THRESHOLD,
+                Type.INT,
+                5,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "Number of consecutive failed Bluesky API calls after which no more calls are made until " + CIRCUIT_OPEN_MS + " has passed")
+        .define(CIRCUIT_OPEN_MS,
+                Type.INT,
+                1000 * 60, // one minute
+                ConfigDef.Range.atLeast(1000),
+                Importance.LOW,
+                "How long to stop making Bluesky API calls for (in milliseconds) after repeated failures, before trying again")
+        .define(VIRTUAL_THREADS,
+                Type.BOOLEAN,
+                false,
+                Importance.LOW,
+                "Whether to run background work on virtual threads, if the JVM supports them (Java 21+)")
+        .define(OVERLOAD_POLICY,
+                Type.STRING,
+                BlueskyLoadShedder.POLICY_NONE,
+                ConfigDef.ValidString.in(BlueskyLoadShedder.POLICY_NONE,
+                                         BlueskyLoadShedder.POLICY_SAMPLE,
+                                         BlueskyLoadShedder.POLICY_PRIORITIZE),
+                Importance.LOW,
+                "How to discard posts when the connector is overloaded - none, sample (keep a fraction of posts), or prioritize (keep posts in priority languages or from priority authors)")
+        .define(OVERLOAD_QUEUE_DEPTH,
+                Type.INT,
+                10_000,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "Number of fetched posts waiting to be delivered above which the connector is overloaded")
+        .define(OVERLOAD_BACKLOG_AGE_MS,
+                Type.INT,
+                1000 * 60 * 10, // ten minutes
+                ConfigDef.Range.atLeast(1000),
+                Importance.LOW,
+                "Time (in milliseconds) that the longest-waiting fetched post has been waiting to be delivered above which the connector is overloaded")
+        .define(OVERLOAD_SAMPLE_RATE,
+                Type.DOUBLE,
+                0.1,
+                ConfigDef.Range.between(0.0, 1.0),
+                Importance.LOW,
+                "Fraction of posts to keep while overloaded, if " + OVERLOAD_POLICY + " is sample")
+        .define(OVERLOAD_PRIORITY_LANGS,
+                Type.LIST,
+                "",
+                Importance.LOW,
+                "Languages (such as en) of posts to keep while overloaded, if " + OVERLOAD_POLICY + " is prioritize")
+        .define(OVERLOAD_PRIORITY_AUTHORS,
+                Type.LIST,
+                "",
+                Importance.LOW,
+                "Handles or DIDs of authors whose posts are kept while overloaded, if " + OVERLOAD_POLICY + " is prioritize")
+        .define(OVERLOAD_PREFER_FRESHNESS,
+                Type.BOOLEAN,
+                false,
+                Importance.LOW,
+                "Whether to discard posts that have been waiting to be delivered for longer than " + OVERLOAD_BACKLOG_AGE_MS + " while overloaded, and skip searches ahead to recent posts")
         .define(TOPIC,
                 Type.STRING,
                 "bluesky",
                 new ConfigDef.NonEmptyString(),
                 Importance.HIGH,
-                "Topic to deliver messages to");
+                "Topic to deliver messages to")
+        .define(REORDER_LATENESS_MS,
+                Type.INT,
+                0,
+                ConfigDef.Range.atLeast(0),
+                Importance.LOW,
+                "How long (in milliseconds) to hold posts back so that they can be delivered in order of their createdAt timestamps - posts arriving after newer posts for the same search term have been delivered are discarded, so this should be longer than " + POLL_INTERVAL_MS + " - 0 delivers posts as soon as they are fetched")
+        .define(REORDER_MAX_POSTS,
+                Type.INT,
+                10_000,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "Maximum number of posts to hold back for reordering - the oldest posts are delivered early if this is exceeded")
+        .define(ENVELOPE_MAX_POSTS,
+                Type.INT,
+                0,
+                ConfigDef.Range.atLeast(0),
+                Importance.MEDIUM,
+                "Maximum number of posts to deliver in a single record - 0 delivers each post in a separate record")
+        .define(ENVELOPE_MAX_MS,
+                Type.INT,
+                1000,
+                ConfigDef.Range.atLeast(0),
+                Importance.MEDIUM,
+                "Maximum time (in milliseconds) to wait for more posts before delivering a record containing multiple posts")
+        .define(ENRICH_PROFILES,
+                Type.BOOLEAN,
+                false,
+                Importance.LOW,
+                "Whether to look up additional profile info (description, follower counts) for post authors")
+        .define(ENRICH_PROFILES_CACHE_SIZE,
+                Type.INT,
+                10_000,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "Maximum number of author profiles to cache")
+        .define(ENRICH_PROFILES_CACHE_TTL_MS,
+                Type.INT,
+                1000 * 60 * 60, // one hour
+                ConfigDef.Range.atLeast(0),
+                Importance.LOW,
+                "How long (in milliseconds) to cache author profiles for before fetching them again")
+        .define(ENRICH_CONTEXT,
+                Type.BOOLEAN,
+                false,
+                Importance.LOW,
+                "Whether to look up the posts that are being replied to or quoted")
+        .define(ENRICH_CONTEXT_CACHE_SIZE,
+                Type.INT,
+                10_000,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "Maximum number of replied-to or quoted posts to cache");
 }
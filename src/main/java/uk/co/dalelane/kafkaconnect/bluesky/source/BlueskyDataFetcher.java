@@ -16,17 +16,24 @@ package uk.co.dalelane.kafkaconnect.bluesky.source;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.function.Function;
 
 import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.co.dalelane.kafkaconnect.bluesky.api.BlueskyClient;
 import uk.co.dalelane.kafkaconnect.bluesky.api.BlueskyException;
+import uk.co.dalelane.kafkaconnect.bluesky.api.CircuitBreaker;
 import uk.co.dalelane.kafkaconnect.bluesky.api.Post;
+import uk.co.dalelane.kafkaconnect.bluesky.api.PostContextResolver;
+import uk.co.dalelane.kafkaconnect.bluesky.api.ProfileHydrator;
+import uk.co.dalelane.kafkaconnect.bluesky.api.RequestPolicy;
+import uk.co.dalelane.kafkaconnect.bluesky.api.SearchQueryPlanner;
+import uk.co.dalelane.kafkaconnect.bluesky.api.SharedScheduler;
+import uk.co.dalelane.kafkaconnect.bluesky.jfr.PollEvent;
 
 
 
@@ -34,19 +41,32 @@ public class BlueskyDataFetcher {
 
     private static Logger log = LoggerFactory.getLogger(BlueskyDataFetcher.class);
 
-    // the search term used in Bluesky searches - not treated as a hashtag, just
-    //  using freetext search
-    private final String searchterm;
+    // decides the searches to submit to Bluesky for the search terms - not
+    //  treated as hashtags, just using freetext search
+    private final SearchQueryPlanner queryPlanner;
+    // where the search terms come from
+    private final BlueskySearchTerms searchTerms;
+    // how often to check if the search terms have been modified
+    private final int searchTermsCheckInterval;
 
     // posts retrieved from Bluesky that haven't yet been collected by
     //  the Kafka Connect task
     private final List<Post> fetchedRecords = Collections.synchronizedList(new ArrayList<Post>());
+    // posts collected by the Kafka Connect task that it is holding
+    //  back for reordering or batching
+    private volatile int heldPosts = 0;
 
     // flag if the fetcher should currently be running
     private boolean isRunning;
 
     // how long to wait before polling the Bluesky API again
     private final int pollInterval;
+    // maximum random adjustment to the poll interval
+    private final int pollJitter;
+    // maximum time for all of the searches in a poll
+    private final int pollTimeout;
+    // how long to wait before polling again after a temporary failure
+    private final int pollRetry;
 
     // number of records to fetch from Bluesky in each poll - hard-coded
     //  to the maximum that the Bluesky API allows
@@ -57,25 +77,76 @@ public class BlueskyDataFetcher {
     private BlueskyClient blueskyClient = null;
     private BlueskyException connectionError = null;
 
+    // optional - adds profile info to post authors
+    private ProfileHydrator profileHydrator = null;
+    // optional - adds replied-to and quoted posts
+    private PostContextResolver postContextResolver = null;
 
-    private Timer pollTimer;
-    private TimerTask pollTask = new TimerTask() {
+    // optional - discards posts when the connector is falling behind
+    private BlueskyLoadShedder loadShedder = null;
+
+
+    // runs the polling in the background - shared with other tasks
+    private SharedScheduler scheduler;
+    private SharedScheduler.ScheduledWork pollSchedule;
+    private SharedScheduler.ScheduledWork searchTermsCheckSchedule;
+    private Runnable pollTask = new Runnable() {
         @Override
         public void run() {
             if (blueskyClient != null) {
-                try {
-                    List<Post> posts = blueskyClient.search(searchterm, POLL_BATCH_SIZE);
-                    if (posts.size() > 0) {
-                        synchronized (fetchedRecords) {
-                            for (Post post : posts) {
-                                fetchedRecords.add(post);
-                            }
-                        }
+                if (loadShedder != null) {
+                    long freshnessCutoff = loadShedder.getFreshnessCutoff();
+                    if (freshnessCutoff != BlueskyClient.NO_POSITION) {
+                        queryPlanner.skipTo(freshnessCutoff);
                     }
                 }
+
+                // all of the API calls in the poll must be complete by this
+                long deadline = System.currentTimeMillis() + pollTimeout;
+
+                List<Post> posts = new ArrayList<>();
+                try {
+                    queryPlanner.search(blueskyClient, POLL_BATCH_SIZE, deadline, posts);
+                }
                 catch (BlueskyException e) {
-                    log.debug("Failed to fetch records from Bluesky", e);
-                    connectionError = e;
+                    if (e.isRetryable()) {
+                        // the search positions only include the posts that
+                        //  were fetched, so the next poll will continue
+                        //  from where this one failed
+                        log.warn("Failed to fetch records from Bluesky (circuit breaker is {}) - polling again in {} ms",
+                                 blueskyClient.getCircuitState(), pollRetry, e);
+                        pollSchedule.runAfter(pollRetry);
+                    }
+                    else {
+                        // searches rejected by Bluesky are handled by the
+                        //  planner, so this is a problem with the session
+                        //  that logging in again couldn't fix
+                        log.debug("Failed to fetch records from Bluesky", e);
+                        connectionError = e;
+                    }
+                }
+
+                // posts are shed before enriching, so that API calls
+                //  aren't made for posts that won't be delivered
+                if (loadShedder != null) {
+                    loadShedder.shed(posts, fetchedRecords, heldPosts, queryPlanner.getSearchLag());
+                }
+
+                // posts fetched before any failure are still delivered
+                if (posts.size() > 0) {
+                    if (profileHydrator != null) {
+                        profileHydrator.hydrate(posts, deadline);
+                    }
+                    if (postContextResolver != null) {
+                        postContextResolver.resolve(posts, deadline);
+                    }
+                    synchronized (fetchedRecords) {
+                        long now = System.currentTimeMillis();
+                        for (Post post : posts) {
+                            post.setQueuedAt(now);
+                            fetchedRecords.add(post);
+                        }
+                    }
                 }
             }
         }
@@ -83,20 +154,65 @@ public class BlueskyDataFetcher {
 
 
 
-    public BlueskyDataFetcher(AbstractConfig config, String offset) {
+    /**
+     * @param offsetReader - returns the timestamp of the most recent post
+     *  delivered for a search term, or null if there isn't one
+     */
+    public BlueskyDataFetcher(AbstractConfig config, Function<String, String> offsetReader) {
         log.info("Creating a Bluesky data fetcher");
 
         // initialise variables
         isRunning = false;
-        searchterm = config.getString(BlueskyConfig.SEARCH_TERM);
+        queryPlanner = new SearchQueryPlanner(
+            config.getBoolean(BlueskyConfig.QUERY_COALESCE),
+            config.getInt(BlueskyConfig.QUERY_MAX_LENGTH),
+            config.getInt(BlueskyConfig.QUERY_COALESCE_THRESHOLD)
+        );
+        searchTerms = new BlueskySearchTerms(config, offsetReader);
+        searchTermsCheckInterval = config.getInt(BlueskyConfig.SEARCH_TERMS_FILE_CHECK_MS);
+        List<String> initialTerms = searchTerms.read();
+        if (initialTerms == null) {
+            throw new ConfigException(BlueskyConfig.SEARCH_TERMS_FILE, searchTerms.getFile(), "Unable to read search terms file");
+        }
+        for (String searchterm : initialTerms) {
+            queryPlanner.addTerm(searchterm, searchTerms.getStartingOffset(searchterm));
+        }
         pollInterval = config.getInt(BlueskyConfig.POLL_INTERVAL_MS);
+        pollJitter = config.getInt(BlueskyConfig.POLL_JITTER_MS);
+        pollTimeout = config.getInt(BlueskyConfig.POLL_TIMEOUT_MS);
+        pollRetry = config.getInt(BlueskyConfig.POLL_RETRY_MS);
+
+        scheduler = SharedScheduler.acquire(config.getBoolean(BlueskyConfig.VIRTUAL_THREADS));
 
         // prepare Bluesky client (credentials are not validated until login())
         blueskyClient = new BlueskyClient(
             config.getString(BlueskyConfig.IDENTITY),
             config.getPassword(BlueskyConfig.APP_PASSWORD).value(),
-            offset
+            scheduler,
+            new RequestPolicy(
+                config.getInt(BlueskyConfig.REQUEST_TIMEOUT_MS),
+                config.getInt(BlueskyConfig.POLL_TIMEOUT_MS),
+                config.getInt(BlueskyConfig.REQUEST_RETRIES),
+                config.getInt(BlueskyConfig.REQUEST_RETRY_BACKOFF_MS)),
+            new CircuitBreaker(
+                config.getInt(BlueskyConfig.CIRCUIT_FAILURE_THRESHOLD),
+                config.getInt(BlueskyConfig.CIRCUIT_OPEN_MS))
         );
+
+        BlueskyLoadShedder shedder = new BlueskyLoadShedder(config);
+        if (shedder.isEnabled()) {
+            loadShedder = shedder;
+        }
+
+        if (config.getBoolean(BlueskyConfig.ENRICH_PROFILES)) {
+            profileHydrator = new ProfileHydrator(blueskyClient,
+                config.getInt(BlueskyConfig.ENRICH_PROFILES_CACHE_SIZE),
+                config.getInt(BlueskyConfig.ENRICH_PROFILES_CACHE_TTL_MS));
+        }
+        if (config.getBoolean(BlueskyConfig.ENRICH_CONTEXT)) {
+            postContextResolver = new PostContextResolver(blueskyClient,
+                config.getInt(BlueskyConfig.ENRICH_CONTEXT_CACHE_SIZE));
+        }
     }
 
 
@@ -106,9 +222,15 @@ public class BlueskyDataFetcher {
         }
 
         if (fetchedRecords.size() > 0) {
+            PollEvent pollEvent = new PollEvent();
+            pollEvent.begin();
+            long waitStart = System.nanoTime();
             synchronized (fetchedRecords) {
+                pollEvent.waitTime = System.nanoTime() - waitStart;
                 List<Post> copy = new ArrayList<>(fetchedRecords);
                 fetchedRecords.clear();
+                pollEvent.batchSize = copy.size();
+                pollEvent.commit();
                 return copy;
             }
         }
@@ -118,6 +240,16 @@ public class BlueskyDataFetcher {
     }
 
 
+    /**
+     * @param heldPosts - number of posts collected by the Kafka Connect
+     *  task that it is holding back for reordering or batching, which
+     *  are included when checking if the connector is overloaded
+     */
+    public void setHeldPosts(int heldPosts) {
+        this.heldPosts = heldPosts;
+    }
+
+
     public synchronized void start() throws ConnectException {
         log.debug("Starting Bluesky fetcher");
 
@@ -126,23 +258,61 @@ public class BlueskyDataFetcher {
         }
         catch (BlueskyException e) {
             log.error("Login failure during startup");
+            // Connect doesn't stop tasks that fail to start, so the
+            //  shared scheduler needs to be released here
+            stop();
             throw new ConnectException(e);
         }
 
         if (isRunning == false) {
-            pollTimer = new Timer("bluesky-posts-poller");
-            pollTimer.schedule(pollTask, 5000, pollInterval);
+            pollSchedule = scheduler.schedule("bluesky-posts-poller", pollTask, 5000, pollInterval, pollJitter);
+            if (searchTerms.isWatchable()) {
+                searchTermsCheckSchedule = scheduler.schedule("bluesky-searchterms-checker",
+                                                              this::updateSearchTerms,
+                                                              searchTermsCheckInterval, searchTermsCheckInterval, 0);
+            }
 
             isRunning = true;
         }
     }
 
 
+    /**
+     * Updates the search terms without interrupting the Bluesky session,
+     *  if the search terms have been modified. Posts that have already
+     *  been fetched for removed search terms are still delivered.
+     */
+    private void updateSearchTerms() {
+        if (searchTerms.hasChanged()) {
+            List<String> updated = searchTerms.read();
+            if (updated == null) {
+                // keep the current search terms until the file can be read
+                return;
+            }
+            log.info("Search terms have been modified - updating to {}", updated);
+
+            for (String searchterm : queryPlanner.getTerms()) {
+                if (!updated.contains(searchterm)) {
+                    queryPlanner.removeTerm(searchterm);
+                }
+            }
+            for (String searchterm : updated) {
+                if (!queryPlanner.hasTerm(searchterm)) {
+                    queryPlanner.addTerm(searchterm, searchTerms.getStartingOffset(searchterm));
+                }
+            }
+        }
+    }
+
+
     public void stop() {
         log.debug("Stopping Bluesky fetcher");
 
         if (isRunning) {
-            pollTimer.cancel();
+            pollSchedule.cancel();
+            if (searchTermsCheckSchedule != null) {
+                searchTermsCheckSchedule.cancel();
+            }
             isRunning = false;
         }
 
@@ -152,6 +322,11 @@ public class BlueskyDataFetcher {
             blueskyClient = null;
         }
 
+        if (scheduler != null) {
+            SharedScheduler.release(scheduler);
+            scheduler = null;
+        }
+
         connectionError = null;
     }
 }
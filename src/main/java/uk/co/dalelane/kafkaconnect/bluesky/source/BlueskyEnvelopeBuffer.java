@@ -0,0 +1,98 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.source;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.connect.source.SourceRecord;
+
+import uk.co.dalelane.kafkaconnect.bluesky.api.Post;
+
+/**
+ * Collects posts into batches to be delivered as envelope records,
+ *  each containing multiple posts.
+ *
+ * A batch is delivered when it contains the maximum number of posts,
+ *  or when the oldest post in it has been waiting for the maximum
+ *  time. Posts are batched by their first matching search term, so
+ *  that the offset for each batch can be stored for that term.
+ */
+public class BlueskyEnvelopeBuffer {
+
+    // maximum number of posts in a single record
+    private final int maxPosts;
+    // maximum time to wait for a batch to fill up
+    private final int maxWaitMs;
+
+    private final BlueskyRecordFactory recordFactory;
+
+    private final Map<String, Batch> batches = new LinkedHashMap<>();
+
+
+    private static class Batch {
+        final List<Post> posts = new ArrayList<>();
+        final long startedAt = System.currentTimeMillis();
+    }
+
+
+    public BlueskyEnvelopeBuffer(int maxPosts, int maxWaitMs, BlueskyRecordFactory recordFactory) {
+        this.maxPosts = maxPosts;
+        this.maxWaitMs = maxWaitMs;
+        this.recordFactory = recordFactory;
+    }
+
+
+    /**
+     * @param posts - new posts to add to batches
+     * @return records for batches that are ready to be delivered
+     */
+    public List<SourceRecord> add(List<Post> posts) {
+        List<SourceRecord> records = new ArrayList<>();
+
+        for (Post post : posts) {
+            Batch batch = batches.computeIfAbsent(post.getMatchedTerms()[0], term -> new Batch());
+            batch.posts.add(post);
+            if (batch.posts.size() >= maxPosts) {
+                records.add(recordFactory.createEnvelopeRecord(batch.posts));
+                batches.remove(post.getMatchedTerms()[0]);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        Iterator<Batch> iterator = batches.values().iterator();
+        while (iterator.hasNext()) {
+            Batch batch = iterator.next();
+            if (now - batch.startedAt >= maxWaitMs) {
+                records.add(recordFactory.createEnvelopeRecord(batch.posts));
+                iterator.remove();
+            }
+        }
+
+        return records;
+    }
+
+
+    /** @return number of posts waiting in batches */
+    public int size() {
+        int size = 0;
+        for (Batch batch : batches.values()) {
+            size += batch.posts.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.source;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.kafka.common.config.AbstractConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.dalelane.kafkaconnect.bluesky.api.BlueskyClient;
+import uk.co.dalelane.kafkaconnect.bluesky.api.Post;
+import uk.co.dalelane.kafkaconnect.bluesky.jfr.LoadSheddingEvent;
+
+/**
+ * Discards some of the fetched posts when the connector is falling
+ *  behind, so that it can catch up.
+ *
+ * The connector is overloaded when too many posts are waiting to be
+ *  delivered (including posts held back for reordering or batching),
+ *  when the post that has been waiting the longest has waited for too
+ *  long, or when the searches are falling too far behind the current
+ *  time because there are more posts than can be fetched in a poll.
+ *  It stays overloaded until all of these have dropped to half of
+ *  their limits, so that it doesn't repeatedly switch in and out of
+ *  shedding.
+ *
+ * The backlog is measured using the time that posts were queued, and
+ *  the search positions, not the createdAt timestamps of the posts,
+ *  which are set by the client that created the post and can be much
+ *  older (e.g. backdated or imported posts).
+ *
+ * While overloaded, posts are either sampled (keeping the same posts
+ *  every time, based on a hash of the URI) or only posts in priority
+ *  languages or from priority authors are kept. If freshness is
+ *  preferred, posts that have been waiting too long are also discarded,
+ *  and searches skip ahead to recent posts.
+ */
+public class BlueskyLoadShedder {
+
+    private static Logger log = LoggerFactory.getLogger(BlueskyLoadShedder.class);
+
+    // values for the overload policy config option
+    public static final String POLICY_NONE = "none";
+    public static final String POLICY_SAMPLE = "sample";
+    public static final String POLICY_PRIORITIZE = "prioritize";
+
+    // granularity of the sample rate
+    private static final int SAMPLE_BUCKETS = 10_000;
+
+    // how posts are chosen to be discarded
+    private final String policy;
+    // number of posts waiting to be collected that means the connector is overloaded
+    private final int maxQueueDepth;
+    // time that the longest-waiting post has waited, or that the searches
+    //  are behind the current time, that means the connector is overloaded
+    private final long maxBacklogAgeMs;
+    // number of sample buckets (out of SAMPLE_BUCKETS) to keep
+    private final int sampleThreshold;
+    // posts to keep when prioritizing - lowercase
+    private final Set<String> priorityLangs;
+    private final Set<String> priorityAuthors;
+    // whether to discard posts that have waited too long
+    private final boolean preferFreshness;
+
+    private boolean overloaded = false;
+    // posts that have been shed, but not yet reported in a delivered post
+    private int pendingShedCount = 0;
+    // posts that have been shed since the connector became overloaded
+    private long overloadShedCount = 0;
+
+
+    public BlueskyLoadShedder(AbstractConfig config) {
+        policy = config.getString(BlueskyConfig.OVERLOAD_POLICY);
+        maxQueueDepth = config.getInt(BlueskyConfig.OVERLOAD_QUEUE_DEPTH);
+        maxBacklogAgeMs = config.getInt(BlueskyConfig.OVERLOAD_BACKLOG_AGE_MS);
+        sampleThreshold = (int) Math.round(config.getDouble(BlueskyConfig.OVERLOAD_SAMPLE_RATE) * SAMPLE_BUCKETS);
+        priorityLangs = toLowerCase(config.getList(BlueskyConfig.OVERLOAD_PRIORITY_LANGS));
+        priorityAuthors = toLowerCase(config.getList(BlueskyConfig.OVERLOAD_PRIORITY_AUTHORS));
+        preferFreshness = config.getBoolean(BlueskyConfig.OVERLOAD_PREFER_FRESHNESS);
+    }
+
+
+    public boolean isEnabled() {
+        return preferFreshness || !POLICY_NONE.equals(policy);
+    }
+
+
+    /**
+     * @return timestamp (in epoch millis) that searches should skip
+     *  ahead to, or NO_POSITION if they should continue from where
+     *  they are
+     */
+    public long getFreshnessCutoff() {
+        if (overloaded && preferFreshness) {
+            return System.currentTimeMillis() - maxBacklogAgeMs;
+        }
+        return BlueskyClient.NO_POSITION;
+    }
+
+
+    /**
+     * Discards posts if the connector is overloaded.
+     *
+     * The number of posts discarded is added to the first post that is
+     *  kept, so that it can be reported in the record for that post.
+     *
+     * @param posts - newly fetched posts, from which posts to shed are removed
+     * @param queue - posts waiting to be collected by Kafka Connect, in
+     *  the order they were queued - if freshness is preferred, posts that
+     *  have waited too long are removed from this as well
+     * @param heldPosts - number of posts collected by Kafka Connect that
+     *  are being held back for reordering or batching
+     * @param searchLagMs - how far the searches are behind the current time
+     */
+    public void shed(List<Post> posts, List<Post> queue, int heldPosts, long searchLagMs) {
+        long now = System.currentTimeMillis();
+        long cutoff = now - maxBacklogAgeMs;
+
+        LoadSheddingEvent event = new LoadSheddingEvent();
+        event.policy = policy;
+        event.received = posts.size();
+        event.searchLag = searchLagMs;
+
+        int shed = 0;
+        synchronized (queue) {
+            // posts are queued in order, so the first post in the
+            //  queue is the one that has been waiting the longest
+            long oldest = queue.isEmpty() ? now : queue.get(0).getQueuedAt();
+            event.queueDepth = queue.size() + posts.size() + heldPosts;
+            event.backlogAge = Math.max(0, now - oldest);
+            updateOverloaded(event.queueDepth, event.backlogAge, searchLagMs);
+
+            if (overloaded && preferFreshness) {
+                // posts waiting to be collected were fetched before any
+                //  that have just been fetched, so are discarded first
+                int before = queue.size();
+                queue.removeIf(post -> post.getQueuedAt() < cutoff);
+                int excess = queue.size() + posts.size() - maxQueueDepth;
+                if (excess > 0) {
+                    queue.subList(0, Math.min(excess, queue.size())).clear();
+                }
+                shed += before - queue.size();
+            }
+        }
+
+        if (overloaded) {
+            int before = posts.size();
+            posts.removeIf(this::shouldShed);
+            shed += before - posts.size();
+        }
+
+        pendingShedCount += shed;
+        overloadShedCount += shed;
+        if (pendingShedCount > 0 && !posts.isEmpty()) {
+            posts.get(0).setShedCount(pendingShedCount);
+            pendingShedCount = 0;
+        }
+
+        event.overloaded = overloaded;
+        event.shed = shed;
+        if (overloaded || shed > 0) {
+            event.commit();
+        }
+    }
+
+
+    private void updateOverloaded(int queueDepth, long backlogAgeMs, long searchLagMs) {
+        if (!overloaded && (queueDepth > maxQueueDepth || backlogAgeMs > maxBacklogAgeMs || searchLagMs > maxBacklogAgeMs)) {
+            log.warn("Connector is overloaded ({} posts waiting, oldest has waited {} ms, searches are {} ms behind) - shedding posts using policy {}",
+                     queueDepth, backlogAgeMs, searchLagMs, policy);
+            overloaded = true;
+            overloadShedCount = 0;
+        }
+        else if (overloaded && queueDepth <= maxQueueDepth / 2 && backlogAgeMs <= maxBacklogAgeMs / 2 && searchLagMs <= maxBacklogAgeMs / 2) {
+            log.info("Connector has recovered from overload ({} posts waiting, oldest has waited {} ms, searches are {} ms behind) - {} posts were shed",
+                     queueDepth, backlogAgeMs, searchLagMs, overloadShedCount);
+            overloaded = false;
+        }
+    }
+
+
+    private boolean shouldShed(Post post) {
+        switch (policy) {
+            case POLICY_SAMPLE:
+                return !isSampled(post.getUri());
+            case POLICY_PRIORITIZE:
+                return !isPriority(post);
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * @return true if the post is in the sample - the same posts are
+     *  kept by every task and after restarts, so replays and multiple
+     *  connectors sampling the same posts produce the same results
+     */
+    private boolean isSampled(String uri) {
+        // String.hashCode is specified so is stable across JVMs, but
+        //  similar URIs have similar hashes, so the bits are mixed
+        //  (using the MurmurHash3 finalizer) before bucketing
+        int hash = uri.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return Integer.remainderUnsigned(hash, SAMPLE_BUCKETS) < sampleThreshold;
+    }
+
+
+    private boolean isPriority(Post post) {
+        if (priorityAuthors.contains(post.getAuthor().getDid()) ||
+            priorityAuthors.contains(post.getAuthor().getHandle().toLowerCase(Locale.ROOT)))
+        {
+            return true;
+        }
+        for (String lang : post.getLangs()) {
+            // language tags can include a region, such as en-GB
+            String language = lang.toLowerCase(Locale.ROOT);
+            int separator = language.indexOf('-');
+            if (priorityLangs.contains(language) ||
+                (separator > 0 && priorityLangs.contains(language.substring(0, separator))))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static Set<String> toLowerCase(List<String> values) {
+        Set<String> lowercase = new HashSet<>();
+        for (String value : values) {
+            lowercase.add(value.trim().toLowerCase(Locale.ROOT));
+        }
+        return lowercase;
+    }
+}
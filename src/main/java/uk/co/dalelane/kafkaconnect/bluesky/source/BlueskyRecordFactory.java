@@ -14,10 +14,14 @@
 package uk.co.dalelane.kafkaconnect.bluesky.source;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.connect.data.Schema;
@@ -27,6 +31,7 @@ import org.apache.kafka.connect.data.Timestamp;
 import org.apache.kafka.connect.source.SourceRecord;
 
 import uk.co.dalelane.kafkaconnect.bluesky.api.Post;
+import uk.co.dalelane.kafkaconnect.bluesky.api.User;
 
 
 public class BlueskyRecordFactory {
@@ -34,6 +39,19 @@ public class BlueskyRecordFactory {
     // post property used as an offset in Connect records
     public static final String OFFSET_FIELD = "createdAt";
 
+    // search term used as the partition in Connect records
+    public static final String PARTITION_FIELD = "searchterm";
+
+    // header listing all of the search terms that a post matched
+    public static final String MATCHED_TERMS_HEADER = "bluesky.matched.terms";
+
+    // header with the number of posts in an envelope record
+    public static final String ENVELOPE_SIZE_HEADER = "bluesky.envelope.size";
+
+    // header with the number of posts that were not delivered because
+    //  of overload, since the previous record
+    public static final String SHED_COUNT_HEADER = "bluesky.shed.count";
+
     // name of the topic to deliver messages to
     private String topic;
 
@@ -46,6 +64,11 @@ public class BlueskyRecordFactory {
             .field("handle", Schema.STRING_SCHEMA)
             .field("displayName", Schema.OPTIONAL_STRING_SCHEMA)
             .field("avatar", Schema.OPTIONAL_STRING_SCHEMA)
+            .field("did", Schema.OPTIONAL_STRING_SCHEMA)
+            .field("description", Schema.OPTIONAL_STRING_SCHEMA)
+            .field("followersCount", Schema.OPTIONAL_INT64_SCHEMA)
+            .field("followsCount", Schema.OPTIONAL_INT64_SCHEMA)
+            .field("postsCount", Schema.OPTIONAL_INT64_SCHEMA)
         .build();
 
     private static final Schema ID_SCHEMA = SchemaBuilder.struct()
@@ -53,6 +76,19 @@ public class BlueskyRecordFactory {
             .field("cid", Schema.STRING_SCHEMA)
         .build();
 
+    // a post that is being replied to or quoted - only the uri is
+    //  available unless the post context is being resolved
+    private static final Schema REFERENCE_SCHEMA = SchemaBuilder.struct()
+        .name("reference")
+        .optional()
+            .field("uri", Schema.STRING_SCHEMA)
+            .field("cid", Schema.OPTIONAL_STRING_SCHEMA)
+            .field("text", Schema.OPTIONAL_STRING_SCHEMA)
+            .field("createdAt", Timestamp.builder().optional().build())
+            .field("authorHandle", Schema.OPTIONAL_STRING_SCHEMA)
+            .field("authorDid", Schema.OPTIONAL_STRING_SCHEMA)
+        .build();
+
     private static final Schema STATUS_SCHEMA = SchemaBuilder.struct()
         .name("status")
             .field("id", ID_SCHEMA)
@@ -60,49 +96,151 @@ public class BlueskyRecordFactory {
             .field("langs", SchemaBuilder.array(Schema.STRING_SCHEMA).build())
             .field("createdAt", Timestamp.builder().optional().build())
             .field("author", ACCOUNT_SCHEMA)
+            .field("replyParent", REFERENCE_SCHEMA)
+            .field("replyRoot", REFERENCE_SCHEMA)
+            .field("quoted", REFERENCE_SCHEMA)
+            .field("matchedTerms", SchemaBuilder.array(Schema.STRING_SCHEMA).optional().build())
+        .build();
+
+    // multiple posts delivered in a single record
+    private static final Schema ENVELOPE_SCHEMA = SchemaBuilder.array(STATUS_SCHEMA)
+        .name("statuses")
         .build();
 
 
     public SourceRecord createSourceRecord(Post data) {
-        Instant timestampInstant = Instant.parse(data.createdAt);
-
-        return new SourceRecord(createSourcePartition(),
-                                createSourceOffset(data),
-                                topic,
-                                null,
-                                null, null,
-                                STATUS_SCHEMA, createStruct(data, timestampInstant),
-                                timestampInstant.toEpochMilli());
+        Instant timestampInstant = Instant.ofEpochMilli(data.getCreatedAtMillis());
+
+        // posts matching multiple search terms are only delivered once,
+        //  so the offset is recorded against the first matching term -
+        //  the stored offsets for the other terms don't include it, so
+        //  after a restart it can be delivered again for each of them
+        //  (until they have a post of their own delivered after it)
+        SourceRecord record = new SourceRecord(createSourcePartition(data.getMatchedTerms()[0]),
+                                               createSourceOffset(data),
+                                               topic,
+                                               null,
+                                               null, null,
+                                               STATUS_SCHEMA, createStruct(data, timestampInstant),
+                                               timestampInstant.toEpochMilli());
+        record.headers().addString(MATCHED_TERMS_HEADER, String.join(",", data.getMatchedTerms()));
+        if (data.getShedCount() > 0) {
+            record.headers().addInt(SHED_COUNT_HEADER, data.getShedCount());
+        }
+        return record;
+    }
+
+    /**
+     * Creates a single record containing multiple posts.
+     *
+     * @param batch - posts to include in the record, which must all
+     *  have the same first matching search term
+     *
+     * As with single posts, the offset is only recorded against the
+     *  first matching search term, so posts in the batch that matched
+     *  other terms can be delivered again after a restart.
+     */
+    public SourceRecord createEnvelopeRecord(List<Post> batch) {
+        List<Struct> statusStructs = new ArrayList<>(batch.size());
+        Set<String> matchedTerms = new LinkedHashSet<>();
+        Post newest = null;
+        Instant newestTimestamp = null;
+        int shedCount = 0;
+        for (Post data : batch) {
+            shedCount += data.getShedCount();
+            Instant timestampInstant = Instant.ofEpochMilli(data.getCreatedAtMillis());
+            statusStructs.add(createStruct(data, timestampInstant));
+            matchedTerms.addAll(Arrays.asList(data.getMatchedTerms()));
+            if (newestTimestamp == null || timestampInstant.isAfter(newestTimestamp)) {
+                newest = data;
+                newestTimestamp = timestampInstant;
+            }
+        }
+
+        SourceRecord record = new SourceRecord(createSourcePartition(newest.getMatchedTerms()[0]),
+                                               createSourceOffset(newest),
+                                               topic,
+                                               null,
+                                               null, null,
+                                               ENVELOPE_SCHEMA, statusStructs,
+                                               newestTimestamp.toEpochMilli());
+        record.headers().addString(MATCHED_TERMS_HEADER, String.join(",", matchedTerms));
+        record.headers().addInt(ENVELOPE_SIZE_HEADER, batch.size());
+        if (shedCount > 0) {
+            record.headers().addInt(SHED_COUNT_HEADER, shedCount);
+        }
+        return record;
     }
 
-    public static Map<String, Object> createSourcePartition() {
+    public static Map<String, Object> createSourcePartition(String searchterm) {
+        return Collections.singletonMap(PARTITION_FIELD, searchterm);
+    }
+    /**
+     * Partition used before multiple search terms were supported - offsets
+     *  stored with this partition are used for bluesky.searchterm if it
+     *  doesn't have an offset.
+     */
+    public static Map<String, Object> createLegacySourcePartition() {
         return null;
     }
     private Map<String, Object> createSourceOffset(Post data) {
-        return Collections.singletonMap(OFFSET_FIELD, data.createdAt);
+        return Collections.singletonMap(OFFSET_FIELD, data.getCreatedAt());
     }
 
     private Struct createStruct(Post data, Instant timestamp) {
+        User author = data.getAuthor();
+
         Struct accountStruct = new Struct(ACCOUNT_SCHEMA);
-        accountStruct.put("handle", data.author.handle);
-        if (!data.author.displayName.isEmpty()) {
-            accountStruct.put("displayName", data.author.displayName);
+        accountStruct.put("handle", author.getHandle());
+        String displayName = author.getDisplayName();
+        if (!displayName.isEmpty()) {
+            accountStruct.put("displayName", displayName);
         }
-        if (!data.author.avatar.isEmpty()) {
-            accountStruct.put("avatar", data.author.avatar);
+        String avatar = author.getAvatar();
+        if (!avatar.isEmpty()) {
+            accountStruct.put("avatar", avatar);
         }
+        accountStruct.put("did", author.getDid());
+        String description = author.getDescription();
+        if (description != null && !description.isEmpty()) {
+            accountStruct.put("description", description);
+        }
+        accountStruct.put("followersCount", author.getFollowersCount());
+        accountStruct.put("followsCount", author.getFollowsCount());
+        accountStruct.put("postsCount", author.getPostsCount());
 
         Struct idStruct = new Struct(ID_SCHEMA);
-        idStruct.put("uri", data.uri);
-        idStruct.put("cid", data.cid);
+        idStruct.put("uri", data.getUri());
+        idStruct.put("cid", data.getCid());
 
         Struct statusStruct = new Struct(STATUS_SCHEMA);
         statusStruct.put("id", idStruct);
-        statusStruct.put("text", data.text);
-        statusStruct.put("langs", Arrays.asList(data.langs));
+        statusStruct.put("text", data.getText());
+        statusStruct.put("langs", Arrays.asList(data.getLangs()));
         statusStruct.put("createdAt", Date.from(timestamp));
         statusStruct.put("author", accountStruct);
+        statusStruct.put("replyParent", createReferenceStruct(data.getReplyParentUri(), data.getReplyParent()));
+        statusStruct.put("replyRoot", createReferenceStruct(data.getReplyRootUri(), data.getReplyRoot()));
+        statusStruct.put("quoted", createReferenceStruct(data.getQuotedUri(), data.getQuoted()));
+        statusStruct.put("matchedTerms", Arrays.asList(data.getMatchedTerms()));
 
         return statusStruct;
     }
+
+    private Struct createReferenceStruct(String uri, Post referenced) {
+        if (uri == null) {
+            return null;
+        }
+
+        Struct referenceStruct = new Struct(REFERENCE_SCHEMA);
+        referenceStruct.put("uri", uri);
+        if (referenced != null) {
+            referenceStruct.put("cid", referenced.getCid());
+            referenceStruct.put("text", referenced.getText());
+            referenceStruct.put("createdAt", new Date(referenced.getCreatedAtMillis()));
+            referenceStruct.put("authorHandle", referenced.getAuthor().getHandle());
+            referenceStruct.put("authorDid", referenced.getAuthor().getDid());
+        }
+        return referenceStruct;
+    }
 }
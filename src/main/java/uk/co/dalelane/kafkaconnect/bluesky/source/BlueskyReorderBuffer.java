@@ -0,0 +1,157 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.source;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.dalelane.kafkaconnect.bluesky.api.Post;
+import uk.co.dalelane.kafkaconnect.bluesky.jfr.ReorderEvent;
+
+/**
+ * Holds fetched posts back so that they can be delivered in the
+ *  order of their createdAt timestamps, across pages, search terms
+ *  and polls.
+ *
+ * Posts are released once they are older than the allowed lateness.
+ *  Posts that are already older than that when they are fetched (such
+ *  as when catching up after a restart) are released straight away.
+ *
+ * Offsets are stored separately for each search term, so each term
+ *  has its own watermark - the timestamp of the newest post released
+ *  for it. The watermark only moves when posts for the term are
+ *  released, so a post is only discarded as late if a newer post for
+ *  the same term has already been delivered (which would otherwise
+ *  move the stored offset backwards). A term that is catching up from
+ *  an older offset than other terms is not affected by them.
+ *
+ * If the buffer is full, the oldest posts are released early, moving
+ *  the watermarks forward to them.
+ */
+public class BlueskyReorderBuffer {
+
+    private static Logger log = LoggerFactory.getLogger(BlueskyReorderBuffer.class);
+
+    // how long to wait for posts that arrive out of order
+    private final long allowedLatenessMs;
+    // maximum number of posts to hold back
+    private final int maxPosts;
+
+    // posts waiting to be released, oldest first - ties are
+    //  ordered by URI so the order is the same after restarts
+    private final PriorityQueue<Post> buffer = new PriorityQueue<>(
+        Comparator.comparingLong(Post::getCreatedAtMillis).thenComparing(Post::getUri));
+    // URIs of posts in the buffer, to skip posts that are fetched twice
+    private final Set<String> bufferedUris = new HashSet<>();
+
+    // timestamp (epoch millis) of the newest post released for each
+    //  search term - terms without an entry haven't had posts released
+    private final Map<String, Long> watermarks = new HashMap<>();
+
+    // number of posts shed by the load shedder that were to be reported
+    //  in posts that this discarded, so are reported in the next release
+    private int pendingShedCount = 0;
+
+
+    public BlueskyReorderBuffer(long allowedLatenessMs, int maxPosts) {
+        this.allowedLatenessMs = allowedLatenessMs;
+        this.maxPosts = maxPosts;
+    }
+
+
+    /**
+     * @param posts - newly fetched posts, in any order
+     * @return posts that have been passed by the watermark, in
+     *  chronological order
+     */
+    public List<Post> add(List<Post> posts) {
+        ReorderEvent event = new ReorderEvent();
+
+        for (Post post : posts) {
+            if (post.getCreatedAtMillis() < getWatermark(post)) {
+                log.debug("Discarding post {} created at {} which is behind the watermark for {}", post.getUri(), post.getCreatedAt(), getTerm(post));
+                event.late += 1;
+                pendingShedCount += post.getShedCount();
+            }
+            else if (bufferedUris.add(post.getUri())) {
+                buffer.add(post);
+            }
+            else {
+                pendingShedCount += post.getShedCount();
+            }
+        }
+        if (event.late > 0) {
+            log.warn("Discarded {} posts that arrived more than {} ms late, after newer posts for the same search term were delivered", event.late, allowedLatenessMs);
+        }
+
+        List<Post> released = new ArrayList<>();
+
+        // release the oldest posts early if the buffer is full
+        while (buffer.size() > maxPosts) {
+            release(released);
+            event.forced += 1;
+        }
+
+        long cutoff = System.currentTimeMillis() - allowedLatenessMs;
+        while (!buffer.isEmpty() && buffer.peek().getCreatedAtMillis() <= cutoff) {
+            release(released);
+        }
+
+        event.released = released.size();
+        event.buffered = buffer.size();
+        if (event.released > 0 || event.late > 0) {
+            event.commit();
+        }
+        return released;
+    }
+
+
+    /** @return number of posts waiting in the buffer */
+    public int size() {
+        return buffer.size();
+    }
+
+
+    private void release(List<Post> released) {
+        Post post = buffer.poll();
+        if (pendingShedCount > 0) {
+            post.setShedCount(post.getShedCount() + pendingShedCount);
+            pendingShedCount = 0;
+        }
+        bufferedUris.remove(post.getUri());
+        released.add(post);
+        // posts are released in order, so this is the newest so far
+        watermarks.put(getTerm(post), post.getCreatedAtMillis());
+    }
+
+
+    private long getWatermark(Post post) {
+        return watermarks.getOrDefault(getTerm(post), Long.MIN_VALUE);
+    }
+
+
+    // the search term that the offset for the post is stored for
+    private static String getTerm(Post post) {
+        return post.getMatchedTerms()[0];
+    }
+}
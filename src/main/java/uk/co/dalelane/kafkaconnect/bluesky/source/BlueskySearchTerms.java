@@ -0,0 +1,160 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package uk.co.dalelane.kafkaconnect.bluesky.source;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.kafka.common.config.AbstractConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Source of the search terms to fetch posts for - either from the
+ *  connector config, or from a file that can be modified while the
+ *  connector is running.
+ */
+public class BlueskySearchTerms {
+
+    private static Logger log = LoggerFactory.getLogger(BlueskySearchTerms.class);
+
+    // values for the initial position config option
+    public static final String INITIAL_POSITION_RECENT = "recent";
+    public static final String INITIAL_POSITION_NOW = "now";
+
+    // file containing search terms, or null if they are only
+    //  provided in the connector config
+    private final Path searchTermsFile;
+    // when the file was last read
+    private FileTime searchTermsFileModified = null;
+
+    // search terms from the connector config
+    private final List<String> configuredSearchTerms;
+
+    // where to start fetching posts for a search term which
+    //  doesn't have a stored offset
+    private final String initialPosition;
+
+    // returns the stored offset for a search term
+    private final Function<String, String> offsetReader;
+
+
+    /**
+     * @param offsetReader - returns the timestamp of the most recent post
+     *  delivered for a search term, or null if there isn't one
+     */
+    public BlueskySearchTerms(AbstractConfig config, Function<String, String> offsetReader) {
+        String file = config.getString(BlueskyConfig.SEARCH_TERMS_FILE);
+        searchTermsFile = file == null ? null : Paths.get(file);
+
+        List<String> searchterms = config.getList(BlueskyConfig.SEARCH_TERMS);
+        if (searchterms.isEmpty()) {
+            searchterms = List.of(config.getString(BlueskyConfig.SEARCH_TERM));
+        }
+        configuredSearchTerms = searchterms;
+
+        initialPosition = config.getString(BlueskyConfig.SEARCH_TERMS_INITIAL_POSITION);
+        this.offsetReader = offsetReader;
+    }
+
+
+    public boolean isWatchable() {
+        return searchTermsFile != null;
+    }
+
+
+    public String getFile() {
+        return searchTermsFile == null ? null : searchTermsFile.toString();
+    }
+
+
+    /**
+     * @return the current search terms, or null if the search terms
+     *  file couldn't be read (it will be read again when hasChanged()
+     *  is next called)
+     */
+    public List<String> read() {
+        if (searchTermsFile == null) {
+            return configuredSearchTerms;
+        }
+
+        try {
+            FileTime modified = Files.getLastModifiedTime(searchTermsFile);
+
+            // one search term per line, ignoring blank lines and # comments
+            Set<String> searchterms = new LinkedHashSet<>();
+            for (String line : Files.readAllLines(searchTermsFile, StandardCharsets.UTF_8)) {
+                String searchterm = line.trim();
+                if (!searchterm.isEmpty() && !searchterm.startsWith("#")) {
+                    searchterms.add(searchterm);
+                }
+            }
+            searchTermsFileModified = modified;
+            return new ArrayList<>(searchterms);
+        }
+        catch (IOException exc) {
+            log.error("Failed to read search terms from {}", searchTermsFile, exc);
+            return null;
+        }
+    }
+
+
+    /**
+     * @return true if the search terms file has been modified since it was last read
+     */
+    public boolean hasChanged() {
+        if (searchTermsFile == null) {
+            return false;
+        }
+        try {
+            return !Files.getLastModifiedTime(searchTermsFile).equals(searchTermsFileModified);
+        }
+        catch (IOException exc) {
+            log.error("Failed to check search terms file {}", searchTermsFile, exc);
+            return false;
+        }
+    }
+
+
+    /**
+     * @return timestamp to start fetching posts for the search term from,
+     *  or null to start from the most recent posts
+     */
+    public String getStartingOffset(String searchterm) {
+        String offset = offsetReader.apply(searchterm);
+        if (offset != null) {
+            return offset;
+        }
+
+        switch (initialPosition) {
+            case INITIAL_POSITION_RECENT:
+                return null;
+            case INITIAL_POSITION_NOW:
+                return Instant.now().toString();
+            default:
+                // timestamp - format checked by config validation
+                return initialPosition;
+        }
+    }
+}
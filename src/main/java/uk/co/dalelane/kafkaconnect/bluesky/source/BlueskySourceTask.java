@@ -32,6 +32,10 @@ public class BlueskySourceTask extends SourceTask {
 
     private BlueskyDataFetcher dataFetcher;
     private BlueskyRecordFactory recordFactory;
+    // only used if posts are delivered in createdAt order
+    private BlueskyReorderBuffer reorderBuffer;
+    // only used if posts are delivered in envelope records
+    private BlueskyEnvelopeBuffer envelopeBuffer;
 
 
     @Override
@@ -43,7 +47,25 @@ public class BlueskySourceTask extends SourceTask {
 
         recordFactory = new BlueskyRecordFactory(config);
 
-        dataFetcher = new BlueskyDataFetcher(config, getOffset());
+        int reorderLateness = config.getInt(BlueskyConfig.REORDER_LATENESS_MS);
+        if (reorderLateness > 0) {
+            if (reorderLateness <= config.getInt(BlueskyConfig.POLL_INTERVAL_MS)) {
+                log.warn("{} is not longer than {} so posts are likely to be discarded as late",
+                         BlueskyConfig.REORDER_LATENESS_MS, BlueskyConfig.POLL_INTERVAL_MS);
+            }
+            reorderBuffer = new BlueskyReorderBuffer(reorderLateness,
+                                                     config.getInt(BlueskyConfig.REORDER_MAX_POSTS));
+        }
+
+        int envelopeMaxPosts = config.getInt(BlueskyConfig.ENVELOPE_MAX_POSTS);
+        if (envelopeMaxPosts > 0) {
+            envelopeBuffer = new BlueskyEnvelopeBuffer(envelopeMaxPosts,
+                                                       config.getInt(BlueskyConfig.ENVELOPE_MAX_MS),
+                                                       recordFactory);
+        }
+
+        String legacySearchTerm = config.getString(BlueskyConfig.SEARCH_TERM);
+        dataFetcher = new BlueskyDataFetcher(config, searchterm -> getOffset(searchterm, legacySearchTerm));
         dataFetcher.start();
     }
 
@@ -58,15 +80,31 @@ public class BlueskySourceTask extends SourceTask {
 
         dataFetcher = null;
         recordFactory = null;
+        reorderBuffer = null;
+        envelopeBuffer = null;
     }
 
 
     @Override
     public List<SourceRecord> poll() throws InterruptedException {
         List<Post> statuses = dataFetcher.getStatuses();
-        return statuses.stream()
-            .map(r -> recordFactory.createSourceRecord(r))
-            .collect(Collectors.toList());
+        if (reorderBuffer != null) {
+            statuses = reorderBuffer.add(statuses);
+        }
+        List<SourceRecord> records;
+        if (envelopeBuffer != null) {
+            records = envelopeBuffer.add(statuses);
+        }
+        else {
+            records = statuses.stream()
+                .map(r -> recordFactory.createSourceRecord(r))
+                .collect(Collectors.toList());
+        }
+
+        // posts held back here count towards the load shedding limits
+        dataFetcher.setHeldPosts((reorderBuffer != null ? reorderBuffer.size() : 0) +
+                                 (envelopeBuffer != null ? envelopeBuffer.size() : 0));
+        return records;
     }
 
 
@@ -76,12 +114,22 @@ public class BlueskySourceTask extends SourceTask {
     }
 
 
-    private String getOffset() {
+    /**
+     * @param legacySearchTerm - search term that offsets stored before multiple
+     *  search terms were supported will have been for
+     * @return timestamp of the most recent post delivered for the
+     *  search term, or null if there isn't one
+     */
+    private String getOffset(String searchterm, String legacySearchTerm) {
         OffsetStorageReader offsetReader = getOffsetStorageReader();
-        if (offsetReader != null) {
-            return getTimestampFromPersistedOffset(offsetReader);
+        if (offsetReader == null) {
+            return null;
+        }
+        String offset = getTimestampFromPersistedOffset(offsetReader, BlueskyRecordFactory.createSourcePartition(searchterm));
+        if (offset == null && searchterm.equals(legacySearchTerm)) {
+            offset = getTimestampFromPersistedOffset(offsetReader, BlueskyRecordFactory.createLegacySourcePartition());
         }
-        return null;
+        return offset;
     }
 
 
@@ -102,9 +150,9 @@ public class BlueskySourceTask extends SourceTask {
     }
 
 
-    private static String getTimestampFromPersistedOffset(OffsetStorageReader persistedOffsetReader) {
-        log.debug("getting timestamp from offset reader");
-        Map<String, Object> persistedOffsetInfo = persistedOffsetReader.offset(BlueskyRecordFactory.createSourcePartition());
+    private static String getTimestampFromPersistedOffset(OffsetStorageReader persistedOffsetReader, Map<String, Object> partition) {
+        log.debug("getting timestamp from offset reader for {}", partition);
+        Map<String, Object> persistedOffsetInfo = persistedOffsetReader.offset(partition);
         Object offset = null;
         if (persistedOffsetInfo == null) {
             log.debug("no persisted offset available from reader");